@@ -2,6 +2,7 @@ package com.secfix.todos.apis.controllers;
 
 import com.secfix.todos.database.models.*;
 import com.secfix.todos.enums.*;
+import com.secfix.todos.services.BulkAnsweringService;
 import com.secfix.todos.services.QuestionnairesService;
 import com.secfix.todos.services.SpreadsheetImportService;
 import com.secfix.todos.storage.StorageService;
@@ -22,13 +23,16 @@ public class QuestionnairesController {
     private final QuestionnairesService questionnairesService;
     private final SpreadsheetImportService spreadsheetImportService;
     private final StorageService storageService;
+    private final BulkAnsweringService bulkAnsweringService;
 
     public QuestionnairesController(QuestionnairesService questionnairesService,
                                      SpreadsheetImportService spreadsheetImportService,
-                                     StorageService storageService) {
+                                     StorageService storageService,
+                                     BulkAnsweringService bulkAnsweringService) {
         this.questionnairesService = questionnairesService;
         this.spreadsheetImportService = spreadsheetImportService;
         this.storageService = storageService;
+        this.bulkAnsweringService = bulkAnsweringService;
     }
 
     @Operation(summary = "List questionnaires")
@@ -91,6 +95,23 @@ public class QuestionnairesController {
         ));
     }
 
+    @Operation(summary = "Suggest answers for all unanswered items via the provider batch API")
+    @PostMapping("/{id}/bulk-suggest")
+    public ResponseEntity<?> bulkSuggest(@PathVariable UUID id) {
+        LlmBatchJob job = bulkAnsweringService.submit(id);
+        return ResponseEntity.ok(Map.of(
+                "batchJobId", job.getId(),
+                "status", job.getStatus().name(),
+                "itemCount", job.getItemCount()
+        ));
+    }
+
+    @Operation(summary = "List bulk suggestion jobs")
+    @GetMapping("/{id}/bulk-suggest")
+    public ResponseEntity<?> listBulkSuggestJobs(@PathVariable UUID id) {
+        return ResponseEntity.ok(bulkAnsweringService.list(id));
+    }
+
     @Operation(summary = "Save response for item")
     @PostMapping("/{id}/items/{itemId}/response")
     public ResponseEntity<?> saveResponse(@PathVariable UUID id, @PathVariable UUID itemId,
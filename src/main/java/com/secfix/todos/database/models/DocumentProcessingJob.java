@@ -1,5 +1,6 @@
 package com.secfix.todos.database.models;
 
+import com.secfix.todos.enums.ProcessingJobPriority;
 import com.secfix.todos.enums.ProcessingJobStage;
 import com.secfix.todos.enums.ProcessingJobStatus;
 import jakarta.persistence.Column;
@@ -40,6 +41,14 @@ public class DocumentProcessingJob {
     @Column(name = "status")
     private ProcessingJobStatus status;
 
+    /**
+     * Claim priority; waiting jobs are promoted one level per aging interval, and to HIGH after the
+     * maximum wait, so LOW work still runs.
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "priority")
+    private ProcessingJobPriority priority = ProcessingJobPriority.NORMAL;
+
     @Column(name = "attempt")
     private Integer attempt = 0;
 
@@ -49,6 +58,18 @@ public class DocumentProcessingJob {
     @Column(name = "locked_by")
     private String lockedBy;
 
+    /**
+     * End of the current lease; a RUNNING job whose lease has expired is no longer owned by {@code lockedBy}.
+     */
+    @Column(name = "lease_expires_at")
+    private Instant leaseExpiresAt;
+
+    /**
+     * Earliest time a PENDING job may be claimed; set when a failed attempt is retried with backoff.
+     */
+    @Column(name = "next_run_at")
+    private Instant nextRunAt;
+
     @Column(name = "error_code")
     private String errorCode;
 
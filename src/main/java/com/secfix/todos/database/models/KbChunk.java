@@ -1,7 +1,10 @@
 package com.secfix.todos.database.models;
 
+import com.secfix.todos.enums.EmbeddingStatus;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
@@ -39,6 +42,14 @@ public class KbChunk {
     @Column(name = "metadata", columnDefinition = "jsonb")
     private String metadata;
 
+    @Enumerated(EnumType.STRING)
+    @Column(name = "embedding_status")
+    private EmbeddingStatus embeddingStatus;
+
+    /** Times the embedding repair job tried to embed this chunk; it gives up after repair-max-attempts. */
+    @Column(name = "repair_attempts")
+    private Integer repairAttempts = 0;
+
     @Column(name = "created_at", nullable = false, updatable = false)
     private Instant createdAt;
 
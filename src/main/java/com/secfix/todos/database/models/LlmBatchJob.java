@@ -0,0 +1,87 @@
+package com.secfix.todos.database.models;
+
+import com.secfix.todos.enums.LlmBatchJobStatus;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import jakarta.persistence.Table;
+import lombok.Data;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.time.Instant;
+import java.util.UUID;
+
+@Entity
+@Table(name = "llm_batch_job")
+@Data
+public class LlmBatchJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @Column(name = "tenant_id", nullable = false)
+    private UUID tenantId;
+
+    @Column(name = "questionnaire_id", nullable = false)
+    private UUID questionnaireId;
+
+    @Column(name = "provider_batch_id")
+    private String providerBatchId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status")
+    private LlmBatchJobStatus status;
+
+    @Column(name = "item_count")
+    private Integer itemCount = 0;
+
+    @Column(name = "completed_count")
+    private Integer completedCount = 0;
+
+    @Column(name = "failed_count")
+    private Integer failedCount = 0;
+
+    /** 1 for a submitted job; follow-up jobs for items the provider failed on count up from there. */
+    @Column(name = "attempt")
+    private Integer attempt = 1;
+
+    /** Per-item retrieval context (item id, citations, top score) needed to score the batch answers. */
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(name = "items", columnDefinition = "jsonb")
+    private String items;
+
+    /**
+     * When the instance preparing the job last renewed its claim; NULL while it waits in PREPARING.
+     */
+    @Column(name = "prepare_started_at")
+    private Instant prepareStartedAt;
+
+    @Column(name = "error_message", columnDefinition = "TEXT")
+    private String errorMessage;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private Instant createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        Instant now = Instant.now();
+        this.createdAt = now;
+        this.updatedAt = now;
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        this.updatedAt = Instant.now();
+    }
+}
@@ -19,6 +19,13 @@ public class Tenant {
     @Column(name = "slug", nullable = false, unique = true)
     private String slug;
 
+    /**
+     * Embedding model whose vectors retrieval uses; switched by the re-embed job once every chunk has
+     * a vector for the configured model. Null until the tenant's first switch.
+     */
+    @Column(name = "active_embedding_model")
+    private String activeEmbeddingModel;
+
     @Column(name = "created_at", nullable = false, updatable = false)
     private Instant createdAt;
 
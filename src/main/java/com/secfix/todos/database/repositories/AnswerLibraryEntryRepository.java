@@ -9,4 +9,6 @@ import java.util.UUID;
 public interface AnswerLibraryEntryRepository extends JpaRepository<AnswerLibraryEntry, UUID> {
 
     List<AnswerLibraryEntry> findByTenantId(UUID tenantId);
+
+    long countByTenantId(UUID tenantId);
 }
@@ -1,6 +1,7 @@
 package com.secfix.todos.database.repositories;
 
 import com.secfix.todos.database.models.DocumentArtifact;
+import com.secfix.todos.enums.DocumentArtifactKind;
 import org.springframework.data.jpa.repository.JpaRepository;
 
 import java.util.List;
@@ -9,4 +10,6 @@ import java.util.UUID;
 public interface DocumentArtifactRepository extends JpaRepository<DocumentArtifact, UUID> {
 
     List<DocumentArtifact> findByTenantIdAndDocumentVersionId(UUID tenantId, UUID documentVersionId);
+
+    boolean existsByTenantIdAndDocumentVersionIdAndKind(UUID tenantId, UUID documentVersionId, DocumentArtifactKind kind);
 }
@@ -2,19 +2,136 @@ package com.secfix.todos.database.repositories;
 
 import com.secfix.todos.database.models.DocumentProcessingJob;
 import com.secfix.todos.enums.ProcessingJobStage;
+import com.secfix.todos.enums.ProcessingJobStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
 import java.util.UUID;
 
 public interface DocumentProcessingJobRepository extends JpaRepository<DocumentProcessingJob, UUID> {
 
     List<DocumentProcessingJob> findByTenantIdAndDocumentVersionId(UUID tenantId, UUID documentVersionId);
 
-    @Query(value = "SELECT * FROM document_processing_job WHERE status = 'PENDING' AND stage = :#{#stage.name()} " +
-            "ORDER BY created_at LIMIT 1 FOR UPDATE SKIP LOCKED", nativeQuery = true)
-    Optional<DocumentProcessingJob> findNextPendingJob(@Param("stage") ProcessingJobStage stage);
+    long countByStatusIn(Collection<ProcessingJobStatus> statuses);
+
+    /**
+     * Serializes claims across workers until the end of the current transaction. Every claimer
+     * computes the same fair order, so concurrent claims would mostly skip each other's picks;
+     * taking turns keeps them disjoint and complete.
+     */
+    @Query(value = "SELECT 1 FROM (SELECT pg_advisory_xact_lock(4242001)) l", nativeQuery = true)
+    int lockClaims();
+
+    /**
+     * Leases pending jobs across stages in one statement. {@code capacity} lists {@code STAGE:slots}
+     * entries (e.g. {@code "PARSE:4,EMBED:2"}); for each, up to {@code slots} PENDING jobs of the stage
+     * are marked RUNNING by {@code workerId} and returned. Jobs waiting out a retry backoff
+     * ({@code next_run_at} in the future) are not eligible.
+     *
+     * Jobs are taken by effective priority first: LOW/NORMAL/HIGH count as 0/1/2 and a waiting LOW
+     * job gains one level per {@code agingMs}, up to NORMAL. Any job that has waited
+     * {@code maxWaitMs} counts as HIGH, so work enqueued as LOW or NORMAL still runs, only much later,
+     * when uploads (always HIGH) keep the queue busy. Within a priority, jobs are taken in weighted
+     * round-robin order across tenants: each tenant's n-th oldest job falls in round
+     * {@code (n - 1) / weight}, and rounds are served in order, oldest job first within a round.
+     * Tenants already running their {@code max-running} jobs of the stage get none.
+     * {@code tenantPolicy} lists {@code tenant:weight:maxRunning} overrides of the defaults.
+     *
+     * Must run after {@link #lockClaims()}; rows locked by another transaction are still skipped, so
+     * competing workers never receive the same job. Each claimed job gets a lease of {@code leaseMs}
+     * that its worker must keep extending.
+     */
+    @Query(value = "WITH capacity AS (SELECT split_part(entry, ':', 1) AS stage, CAST(split_part(entry, ':', 2) AS int) AS slots " +
+            "FROM unnest(string_to_array(:capacity, ',')) AS entry), " +
+            "policy AS (SELECT CAST(split_part(entry, ':', 1) AS uuid) AS tenant_id, CAST(split_part(entry, ':', 2) AS int) AS weight, " +
+            "CAST(split_part(entry, ':', 3) AS int) AS max_running FROM unnest(string_to_array(:tenantPolicy, ',')) AS entry), " +
+            "running AS (SELECT tenant_id, stage, count(*) AS jobs FROM document_processing_job WHERE status = 'RUNNING' GROUP BY tenant_id, stage), " +
+            "pending AS (SELECT p.*, CASE WHEN COALESCE(p.priority, 'NORMAL') = 'HIGH' " +
+            "OR p.created_at <= now() - :maxWaitMs * interval '1 millisecond' THEN 2 " +
+            "ELSE LEAST(1, CASE p.priority WHEN 'LOW' THEN 0 ELSE 1 END " +
+            "+ floor(EXTRACT(EPOCH FROM now() - p.created_at) * 1000 / :agingMs)) END AS effective_priority " +
+            "FROM document_processing_job p WHERE p.status = 'PENDING' AND (p.next_run_at IS NULL OR p.next_run_at <= now())), " +
+            "candidate AS (SELECT p.id, p.stage, p.created_at, p.effective_priority, " +
+            "row_number() OVER (PARTITION BY p.stage, p.effective_priority, p.tenant_id ORDER BY p.created_at) AS tenant_rank, " +
+            "row_number() OVER (PARTITION BY p.stage, p.tenant_id ORDER BY p.effective_priority DESC, p.created_at) AS tenant_position, " +
+            "COALESCE(t.weight, :defaultWeight) AS weight, " +
+            "COALESCE(t.max_running, :defaultMaxRunning) - COALESCE(r.jobs, 0) AS allowed " +
+            "FROM pending p JOIN capacity c ON c.stage = p.stage " +
+            "LEFT JOIN policy t ON t.tenant_id = p.tenant_id " +
+            "LEFT JOIN running r ON r.tenant_id = p.tenant_id AND r.stage = p.stage), " +
+            "picked AS (SELECT j.id FROM capacity c CROSS JOIN LATERAL (SELECT id FROM candidate " +
+            "WHERE stage = c.stage AND tenant_position <= allowed " +
+            "ORDER BY effective_priority DESC, (tenant_rank - 1) / weight, created_at LIMIT c.slots) j), " +
+            "claimable AS (SELECT id FROM document_processing_job WHERE id IN (SELECT id FROM picked) AND status = 'PENDING' " +
+            "FOR UPDATE SKIP LOCKED) " +
+            "UPDATE document_processing_job SET status = 'RUNNING', locked_at = now(), locked_by = :workerId, " +
+            "lease_expires_at = now() + :leaseMs * interval '1 millisecond', attempt = attempt + 1, updated_at = now() " +
+            "WHERE id IN (SELECT id FROM claimable) RETURNING *",
+            nativeQuery = true)
+    List<DocumentProcessingJob> claimPendingJobs(@Param("capacity") String capacity, @Param("workerId") String workerId,
+                                                 @Param("leaseMs") long leaseMs, @Param("tenantPolicy") String tenantPolicy,
+                                                 @Param("defaultWeight") int defaultWeight,
+                                                 @Param("defaultMaxRunning") int defaultMaxRunning,
+                                                 @Param("agingMs") long agingMs, @Param("maxWaitMs") long maxWaitMs);
+
+    /**
+     * Extends the leases {@code workerId} still holds; returns the ids whose lease was extended.
+     */
+    @Query(value = "UPDATE document_processing_job SET lease_expires_at = now() + :leaseMs * interval '1 millisecond' " +
+            "WHERE id IN (:ids) AND locked_by = :workerId AND status = 'RUNNING' RETURNING id", nativeQuery = true)
+    List<UUID> extendLeases(@Param("ids") Collection<UUID> ids, @Param("workerId") String workerId,
+                            @Param("leaseMs") long leaseMs);
+
+    /**
+     * Moves a leased job to {@code status}, only if the caller's lease (worker and attempt) is still
+     * the current one. Returns 0 when the job has been reclaimed in the meantime.
+     */
+    @Modifying
+    @Query("UPDATE DocumentProcessingJob j SET j.status = :status, j.leaseExpiresAt = null, j.errorCode = :errorCode, " +
+            "j.errorMessage = :errorMessage, j.updatedAt = :now WHERE j.id = :id AND j.lockedBy = :workerId " +
+            "AND j.attempt = :attempt AND j.status = com.secfix.todos.enums.ProcessingJobStatus.RUNNING")
+    int finishLeased(@Param("id") UUID id, @Param("workerId") String workerId, @Param("attempt") int attempt,
+                     @Param("status") ProcessingJobStatus status, @Param("errorCode") String errorCode,
+                     @Param("errorMessage") String errorMessage, @Param("now") Instant now);
+
+    /**
+     * Returns a leased job to PENDING for another attempt, not to be claimed before {@code nextRunAt},
+     * with the same ownership check as {@link #finishLeased}.
+     */
+    @Modifying
+    @Query("UPDATE DocumentProcessingJob j SET j.status = com.secfix.todos.enums.ProcessingJobStatus.PENDING, " +
+            "j.lockedAt = null, j.lockedBy = null, j.leaseExpiresAt = null, j.nextRunAt = :nextRunAt, " +
+            "j.errorCode = :errorCode, j.errorMessage = :errorMessage, j.updatedAt = :now " +
+            "WHERE j.id = :id AND j.lockedBy = :workerId AND j.attempt = :attempt " +
+            "AND j.status = com.secfix.todos.enums.ProcessingJobStatus.RUNNING")
+    int releaseLeased(@Param("id") UUID id, @Param("workerId") String workerId, @Param("attempt") int attempt,
+                      @Param("nextRunAt") Instant nextRunAt, @Param("errorCode") String errorCode,
+                      @Param("errorMessage") String errorMessage, @Param("now") Instant now);
+
+    /**
+     * Returns RUNNING jobs whose lease expired (their worker died or stalled) to PENDING, as long as
+     * they have attempts left. Jobs claimed before leases existed count as expired {@code leaseMs}
+     * after {@code locked_at}.
+     */
+    @Query(value = "UPDATE document_processing_job SET status = 'PENDING', locked_at = NULL, locked_by = NULL, " +
+            "lease_expires_at = NULL, error_message = 'Lease expired on ' || COALESCE(locked_by, 'unknown worker'), updated_at = now() " +
+            "WHERE status = 'RUNNING' AND attempt < :maxAttempts AND (lease_expires_at < now() " +
+            "OR (lease_expires_at IS NULL AND locked_at < now() - :leaseMs * interval '1 millisecond')) RETURNING *",
+            nativeQuery = true)
+    List<DocumentProcessingJob> requeueExpiredLeases(@Param("maxAttempts") int maxAttempts, @Param("leaseMs") long leaseMs);
+
+    /**
+     * Fails RUNNING jobs whose lease expired on their last attempt.
+     */
+    @Query(value = "UPDATE document_processing_job SET status = 'FAILED', lease_expires_at = NULL, " +
+            "error_message = 'Lease expired on ' || COALESCE(locked_by, 'unknown worker') || ' on the last attempt', updated_at = now() " +
+            "WHERE status = 'RUNNING' AND attempt >= :maxAttempts AND (lease_expires_at < now() " +
+            "OR (lease_expires_at IS NULL AND locked_at < now() - :leaseMs * interval '1 millisecond')) RETURNING *",
+            nativeQuery = true)
+    List<DocumentProcessingJob> failExpiredLeases(@Param("maxAttempts") int maxAttempts, @Param("leaseMs") long leaseMs);
 }
@@ -1,8 +1,13 @@
 package com.secfix.todos.database.repositories;
 
 import com.secfix.todos.database.models.DocumentVersion;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -12,4 +17,21 @@ public interface DocumentVersionRepository extends JpaRepository<DocumentVersion
     List<DocumentVersion> findByTenantIdAndDocumentId(UUID tenantId, UUID documentId);
 
     Optional<DocumentVersion> findByTenantIdAndId(UUID tenantId, UUID id);
+
+    /**
+     * Row-locks the version, serializing stage completions of the same version.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT v FROM DocumentVersion v WHERE v.id = :id")
+    Optional<DocumentVersion> lockById(@Param("id") UUID id);
+
+    /**
+     * READY versions of the given document types that were never chunked, e.g. because their type
+     * was not indexed when they were processed.
+     */
+    @Query(value = "SELECT v.* FROM document_version v JOIN document d ON d.id = v.document_id " +
+            "WHERE v.status = 'READY' AND d.type IN (:types) " +
+            "AND NOT EXISTS (SELECT 1 FROM document_processing_job j WHERE j.document_version_id = v.id AND j.stage = 'CHUNK') " +
+            "ORDER BY v.created_at LIMIT :limit", nativeQuery = true)
+    List<DocumentVersion> findReadyVersionsNotChunked(@Param("types") Collection<String> types, @Param("limit") int limit);
 }
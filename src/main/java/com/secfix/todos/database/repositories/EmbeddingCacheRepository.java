@@ -0,0 +1,13 @@
+package com.secfix.todos.database.repositories;
+
+import com.secfix.todos.database.models.EmbeddingCacheEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public interface EmbeddingCacheRepository extends JpaRepository<EmbeddingCacheEntry, UUID> {
+
+    List<EmbeddingCacheEntry> findByTenantIdAndContentHashIn(UUID tenantId, Collection<String> contentHashes);
+}
@@ -1,12 +1,55 @@
 package com.secfix.todos.database.repositories;
 
 import com.secfix.todos.database.models.KbChunk;
+import com.secfix.todos.enums.EmbeddingStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
 public interface KbChunkRepository extends JpaRepository<KbChunk, UUID> {
 
     List<KbChunk> findByTenantIdAndDocumentVersionId(UUID tenantId, UUID documentVersionId);
+
+    @Modifying
+    @Query("DELETE FROM KbChunk c WHERE c.tenantId = :tenantId AND c.documentVersionId = :versionId")
+    int deleteByTenantIdAndDocumentVersionId(@Param("tenantId") UUID tenantId, @Param("versionId") UUID versionId);
+
+    /**
+     * Chunks of READY versions that failed to embed, or that predate per-chunk status and have
+     * no usable (non-zero) embedding, and were tried fewer than {@code maxAttempts} times. The
+     * least tried come first, so chunks that keep failing cannot crowd out the others. A vector
+     * serialized as text is all-zero exactly when it contains no digit 1-9.
+     */
+    @Query(value = "SELECT c.* FROM kb_chunk c JOIN document_version v ON v.id = c.document_version_id " +
+            "WHERE v.status = 'READY' AND COALESCE(c.repair_attempts, 0) < :maxAttempts " +
+            "AND (c.embedding_status = 'FAILED' OR (c.embedding_status IS NULL " +
+            "AND NOT EXISTS (SELECT 1 FROM kb_embedding e WHERE e.chunk_id = c.id AND e.embedding ~ '[1-9]'))) " +
+            "ORDER BY COALESCE(c.repair_attempts, 0), c.created_at LIMIT :limit", nativeQuery = true)
+    List<KbChunk> findChunksNeedingEmbeddingRepair(@Param("maxAttempts") int maxAttempts, @Param("limit") int limit);
+
+    @Modifying
+    @Query("UPDATE KbChunk c SET c.embeddingStatus = :status WHERE c.id IN :ids")
+    int updateEmbeddingStatus(@Param("ids") Collection<UUID> ids, @Param("status") EmbeddingStatus status);
+
+    @Modifying
+    @Query("UPDATE KbChunk c SET c.repairAttempts = COALESCE(c.repairAttempts, 0) + 1 WHERE c.id IN :ids")
+    int incrementRepairAttempts(@Param("ids") Collection<UUID> ids);
+
+    /**
+     * Chunks of the tenant's READY versions that have no vector for {@code model} yet. FAILED chunks
+     * are included until they were tried {@code maxAttempts} times (the budget they share with the
+     * repair job), so a persistently failing chunk cannot hold up a model switch forever.
+     */
+    @Query(value = "SELECT c.* FROM kb_chunk c JOIN document_version v ON v.id = c.document_version_id " +
+            "WHERE c.tenant_id = :tenantId AND v.status = 'READY' " +
+            "AND (c.embedding_status IS NULL OR c.embedding_status <> 'FAILED' OR COALESCE(c.repair_attempts, 0) < :maxAttempts) " +
+            "AND NOT EXISTS (SELECT 1 FROM kb_embedding e WHERE e.chunk_id = c.id AND e.embedding_model = :model) " +
+            "ORDER BY COALESCE(c.repair_attempts, 0), c.created_at LIMIT :limit", nativeQuery = true)
+    List<KbChunk> findChunksMissingEmbeddingModel(@Param("tenantId") UUID tenantId, @Param("model") String model,
+                                                  @Param("maxAttempts") int maxAttempts, @Param("limit") int limit);
 }
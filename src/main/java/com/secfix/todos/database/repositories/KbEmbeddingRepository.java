@@ -2,7 +2,11 @@ package com.secfix.todos.database.repositories;
 
 import com.secfix.todos.database.models.KbEmbedding;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
@@ -11,4 +15,40 @@ public interface KbEmbeddingRepository extends JpaRepository<KbEmbedding, UUID>
     List<KbEmbedding> findByTenantIdAndChunkId(UUID tenantId, UUID chunkId);
 
     List<KbEmbedding> findByTenantId(UUID tenantId);
+
+    List<KbEmbedding> findByTenantIdAndEmbeddingModelIn(UUID tenantId, Collection<String> embeddingModels);
+
+    long countByTenantId(UUID tenantId);
+
+    @Modifying
+    @Query("DELETE FROM KbEmbedding e WHERE e.chunkId IN :chunkIds AND e.embeddingModel = :model")
+    void deleteByChunkIdInAndEmbeddingModel(@Param("chunkIds") Collection<UUID> chunkIds, @Param("model") String model);
+
+    @Modifying
+    @Query("DELETE FROM KbEmbedding e WHERE e.chunkId IN " +
+            "(SELECT c.id FROM KbChunk c WHERE c.tenantId = :tenantId AND c.documentVersionId = :versionId)")
+    int deleteByDocumentVersion(@Param("tenantId") UUID tenantId, @Param("versionId") UUID versionId);
+
+    /**
+     * Drops the vectors of every model other than {@code model} of chunks that have a {@code model}
+     * vector, after the tenant switched to it. A chunk the new model could not embed keeps its old
+     * vector, which is its only one.
+     */
+    @Modifying
+    @Query("DELETE FROM KbEmbedding e WHERE e.tenantId = :tenantId AND (e.embeddingModel IS NULL OR e.embeddingModel <> :model) " +
+            "AND EXISTS (SELECT 1 FROM KbEmbedding n WHERE n.chunkId = e.chunkId AND n.embeddingModel = :model)")
+    int deleteVectorsReplacedBy(@Param("tenantId") UUID tenantId, @Param("model") String model);
+
+    /**
+     * Drops the tenant's {@code from} vectors of chunks that already have a {@code to} vector,
+     * so that relabelling {@code from} to {@code to} leaves one vector per chunk.
+     */
+    @Modifying
+    @Query("DELETE FROM KbEmbedding e WHERE e.tenantId = :tenantId AND e.embeddingModel = :from " +
+            "AND EXISTS (SELECT 1 FROM KbEmbedding o WHERE o.chunkId = e.chunkId AND o.embeddingModel = :to)")
+    int deleteShadowedVectors(@Param("tenantId") UUID tenantId, @Param("from") String from, @Param("to") String to);
+
+    @Modifying
+    @Query("UPDATE KbEmbedding e SET e.embeddingModel = :to WHERE e.tenantId = :tenantId AND e.embeddingModel = :from")
+    int relabelModel(@Param("tenantId") UUID tenantId, @Param("from") String from, @Param("to") String to);
 }
@@ -0,0 +1,51 @@
+package com.secfix.todos.database.repositories;
+
+import com.secfix.todos.database.models.LlmBatchJob;
+import com.secfix.todos.enums.LlmBatchJobStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+public interface LlmBatchJobRepository extends JpaRepository<LlmBatchJob, UUID> {
+
+    List<LlmBatchJob> findByStatus(LlmBatchJobStatus status);
+
+    /**
+     * Claims a PREPARING job for retrieval: succeeds if no instance started preparing it yet, or the
+     * one that did started before {@code staleBefore} and is presumed dead.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE LlmBatchJob j SET j.prepareStartedAt = :now WHERE j.id = :id " +
+            "AND j.status = com.secfix.todos.enums.LlmBatchJobStatus.PREPARING " +
+            "AND (j.prepareStartedAt IS NULL OR j.prepareStartedAt < :staleBefore)")
+    int claimPreparation(@Param("id") UUID id, @Param("now") Instant now, @Param("staleBefore") Instant staleBefore);
+
+    /**
+     * Renews a claim taken at {@code claimedAt}; returns 0 if another instance took the job over
+     * (or it left PREPARING) since, in which case the caller must stop preparing it.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE LlmBatchJob j SET j.prepareStartedAt = :now WHERE j.id = :id " +
+            "AND j.status = com.secfix.todos.enums.LlmBatchJobStatus.PREPARING AND j.prepareStartedAt = :claimedAt")
+    int renewPreparation(@Param("id") UUID id, @Param("claimedAt") Instant claimedAt, @Param("now") Instant now);
+
+    /**
+     * Moves a SUBMITTED job to COMPLETED; returns 0 if another instance already applied its results.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE LlmBatchJob j SET j.status = com.secfix.todos.enums.LlmBatchJobStatus.COMPLETED, " +
+            "j.completedCount = :completed, j.failedCount = :failed, j.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE j.id = :id AND j.status = com.secfix.todos.enums.LlmBatchJobStatus.SUBMITTED")
+    int markCompleted(@Param("id") UUID id, @Param("completed") int completed, @Param("failed") int failed);
+
+    List<LlmBatchJob> findByTenantIdAndQuestionnaireIdOrderByCreatedAtDesc(UUID tenantId, UUID questionnaireId);
+}
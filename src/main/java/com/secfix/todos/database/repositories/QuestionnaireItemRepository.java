@@ -2,6 +2,9 @@ package com.secfix.todos.database.repositories;
 
 import com.secfix.todos.database.models.QuestionnaireItem;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 import java.util.UUID;
@@ -9,4 +12,14 @@ import java.util.UUID;
 public interface QuestionnaireItemRepository extends JpaRepository<QuestionnaireItem, UUID> {
 
     List<QuestionnaireItem> findByTenantIdAndQuestionnaireIdOrderByItemIndex(UUID tenantId, UUID questionnaireId);
+
+    /**
+     * Marks the item SUGGESTED only if it is still UNANSWERED; returns 0 if a user drafted or
+     * approved an answer in the meantime.
+     */
+    @Modifying
+    @Query("UPDATE QuestionnaireItem i SET i.currentState = com.secfix.todos.enums.QuestionnaireItemState.SUGGESTED " +
+            "WHERE i.id = :id AND i.tenantId = :tenantId " +
+            "AND i.currentState = com.secfix.todos.enums.QuestionnaireItemState.UNANSWERED")
+    int markSuggestedIfUnanswered(@Param("tenantId") UUID tenantId, @Param("id") UUID id);
 }
@@ -7,6 +7,7 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 public interface QuestionnaireRepository extends JpaRepository<Questionnaire, UUID>, JpaSpecificationExecutor<Questionnaire> {
@@ -18,4 +19,6 @@ public interface QuestionnaireRepository extends JpaRepository<Questionnaire, UU
     List<Questionnaire> findByTenantIdAndType(UUID tenantId, QuestionnaireType type);
 
     List<Questionnaire> findByTenantIdAndOwnerUserId(UUID tenantId, Integer ownerUserId);
+
+    Optional<Questionnaire> findFirstByTenantIdAndSourceDocumentVersionId(UUID tenantId, UUID sourceDocumentVersionId);
 }
@@ -0,0 +1,8 @@
+package com.secfix.todos.enums;
+
+public enum LlmBatchJobStatus {
+    PREPARING,
+    SUBMITTED,
+    COMPLETED,
+    FAILED
+}
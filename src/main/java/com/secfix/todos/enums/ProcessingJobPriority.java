@@ -0,0 +1,7 @@
+package com.secfix.todos.enums;
+
+public enum ProcessingJobPriority {
+    LOW,
+    NORMAL,
+    HIGH
+}
@@ -0,0 +1,16 @@
+package com.secfix.todos.exceptions;
+
+/**
+ * Raised by {@link com.secfix.todos.services.LlmClient#completeOrThrow} when a provider call
+ * fails. The message is the user-facing "Error..." text that {@code complete} returns in-band.
+ */
+public class LlmCallException extends RuntimeException {
+
+    public LlmCallException(String message) {
+        super(message);
+    }
+
+    public LlmCallException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,16 @@
+package com.secfix.todos.exceptions;
+
+/**
+ * A document processing failure that retrying cannot fix, such as a file the parser rejects or a
+ * missing artifact. The job fails on the first attempt instead of being retried.
+ */
+public class PermanentProcessingException extends RuntimeException {
+
+    public PermanentProcessingException(String message) {
+        super(message);
+    }
+
+    public PermanentProcessingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,146 @@
+package com.secfix.todos.http;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming (token-level) decoding of provider responses. Avoids building a {@code JsonNode}
+ * tree for the whole body and decodes embedding arrays straight into {@code float[]}.
+ */
+public final class JsonResponseReader {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final ObjectReader TREE_READER = new ObjectMapper().readerFor(JsonNode.class);
+
+    private JsonResponseReader() {}
+
+    /**
+     * Returns the string found at {@code path} (field names and array indexes), or {@code ""}
+     * if the path does not exist, e.g. {@code readText(in, "choices", 0, "message", "content")}.
+     */
+    public static String readText(InputStream in, Object... path) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            parser.nextToken();
+            if (!seek(parser, path)) return "";
+            return parser.currentToken().isScalarValue() ? parser.getValueAsString("") : "";
+        }
+    }
+
+    /**
+     * Iterates the values of a JSON Lines body (batch result files) one line at a time, so only the
+     * current entry is held as a tree, never the whole file. Blank lines are skipped.
+     */
+    public static MappingIterator<JsonNode> readJsonLines(InputStream in) throws IOException {
+        return TREE_READER.readValues(in);
+    }
+
+    /**
+     * Reads the {@code embedding} array of each element of the top-level {@code dataField} array
+     * (OpenAI / Voyage {@code data}, Ollama {@code embeddings}). Entries are placed by their
+     * {@code index} field when present; entries without a vector are {@code null}.
+     */
+    public static List<float[]> readEmbeddingList(InputStream in, String dataField, int dimensions) throws IOException {
+        List<float[]> result = new ArrayList<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return result;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (!field.equals(dataField) || value != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.currentToken() == JsonToken.START_ARRAY) {
+                        // bare vector, e.g. Ollama /api/embed "embeddings": [[...], [...]]
+                        result.add(readFloatArray(parser, dimensions));
+                    } else if (parser.currentToken() == JsonToken.START_OBJECT) {
+                        readEmbeddingObject(parser, dimensions, result);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void readEmbeddingObject(JsonParser parser, int dimensions, List<float[]> result) throws IOException {
+        int index = -1;
+        float[] vector = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if (name.equals("embedding") && token == JsonToken.START_ARRAY) {
+                vector = readFloatArray(parser, dimensions);
+            } else if (name.equals("index") && token == JsonToken.VALUE_NUMBER_INT) {
+                index = parser.getIntValue();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (index < 0) index = result.size();
+        while (result.size() <= index) result.add(null);
+        result.set(index, vector);
+    }
+
+    /**
+     * Decodes the array the parser is positioned on, preallocated to the expected dimension.
+     */
+    private static float[] readFloatArray(JsonParser parser, int expectedSize) throws IOException {
+        float[] values = new float[Math.max(expectedSize, 16)];
+        int n = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (n == values.length) values = Arrays.copyOf(values, values.length * 2);
+            values[n++] = parser.getFloatValue();
+        }
+        return n == values.length ? values : Arrays.copyOf(values, n);
+    }
+
+    /**
+     * Advances the parser to the value at {@code path}; the parser must be on the root value.
+     */
+    private static boolean seek(JsonParser parser, Object... path) throws IOException {
+        for (Object step : path) {
+            JsonToken container = parser.currentToken();
+            if (step instanceof String field) {
+                if (container != JsonToken.START_OBJECT) return false;
+                boolean found = false;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.currentName();
+                    parser.nextToken();
+                    if (name.equals(field)) {
+                        found = true;
+                        break;
+                    }
+                    parser.skipChildren();
+                }
+                if (!found) return false;
+            } else if (step instanceof Integer index) {
+                if (container != JsonToken.START_ARRAY) return false;
+                int i = 0;
+                boolean found = false;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (i++ == index) {
+                        found = true;
+                        break;
+                    }
+                    parser.skipChildren();
+                }
+                if (!found) return false;
+            }
+        }
+        return true;
+    }
+}
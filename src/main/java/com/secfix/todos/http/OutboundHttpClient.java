@@ -0,0 +1,312 @@
+package com.secfix.todos.http;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP client for a single outbound integration (LLM, embeddings, Kreuzberg, GitHub).
+ * Each integration gets its own connection pool, timeouts and concurrency limit so a
+ * slow or hung dependency cannot exhaust the others. Responses are requested gzip-encoded
+ * and every exchange is recorded in the {@code sectool.http.client.requests} timer.
+ *
+ * A streamed exchange holds its concurrency slot until the body is closed, and body reads are
+ * bounded too: the request timeout applies again from the moment the headers arrived, after which
+ * the stream is closed and reads fail with {@link HttpTimeoutException}.
+ */
+public class OutboundHttpClient {
+
+    public record Settings(Duration connectTimeout, Duration requestTimeout, int maxConcurrency, boolean http2) {}
+
+    /**
+     * Status and (decompressed) body stream of a streamed exchange. Must be closed to release the connection.
+     */
+    public record StreamResponse(int statusCode, InputStream body) implements Closeable {
+        /**
+         * Reads at most {@code maxBytes} of the body as text, for error logging.
+         */
+        public String snippet(int maxBytes) throws IOException {
+            return new String(body.readNBytes(maxBytes), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+    }
+
+    private static final String METRIC_NAME = "sectool.http.client.requests";
+    private static final ScheduledThreadPoolExecutor BODY_DEADLINES = bodyDeadlineScheduler();
+
+    private final String integration;
+    private final Settings settings;
+    private final HttpClient httpClient;
+    private final Semaphore permits;
+    private final MeterRegistry meterRegistry;
+
+    public OutboundHttpClient(String integration, Settings settings, Executor executor, MeterRegistry meterRegistry) {
+        this.integration = integration;
+        this.settings = settings;
+        this.meterRegistry = meterRegistry;
+        this.permits = new Semaphore(settings.maxConcurrency(), true);
+        this.httpClient = HttpClient.newBuilder()
+                .version(settings.http2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(settings.connectTimeout())
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+    }
+
+    public String integration() {
+        return integration;
+    }
+
+    /**
+     * Starts a request with the integration's request timeout and gzip negotiation applied.
+     */
+    public HttpRequest.Builder request(String url) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(settings.requestTimeout())
+                .header("Accept-Encoding", "gzip");
+    }
+
+    /**
+     * Sends the request and returns the (decompressed) body as a string.
+     *
+     * @param endpoint low-cardinality endpoint name used as the metrics tag, e.g. {@code "messages"}
+     */
+    public HttpResponse<String> send(String endpoint, HttpRequest request) throws IOException, InterruptedException {
+        return exchange(endpoint, request, gzipAwareString());
+    }
+
+    /**
+     * Sends the request and returns the body as a stream, so large responses (embedding batches)
+     * can be decoded incrementally instead of being buffered into a string first.
+     */
+    public StreamResponse sendForStream(String endpoint, HttpRequest request) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        HttpResponse<InputStream> response = exchange(endpoint, request, HttpResponse.BodyHandlers.ofInputStream(), true);
+        InputStream metered = new MeteredBody(response.body(), endpoint, String.valueOf(response.statusCode()), start);
+        InputStream body = isGzip(response) ? new LazyGzipInputStream(metered) : metered;
+        return new StreamResponse(response.statusCode(), body);
+    }
+
+    private <T> HttpResponse<T> exchange(String endpoint, HttpRequest request,
+                                         HttpResponse.BodyHandler<T> handler) throws IOException, InterruptedException {
+        return exchange(endpoint, request, handler, false);
+    }
+
+    /**
+     * With {@code holdUntilClosed}, a successful exchange keeps its slot and is not recorded yet;
+     * the caller's {@link MeteredBody} does both when it is closed.
+     */
+    private <T> HttpResponse<T> exchange(String endpoint, HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                         boolean holdUntilClosed) throws IOException, InterruptedException {
+        if (!permits.tryAcquire(settings.requestTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+            record(endpoint, "QUEUE_TIMEOUT", 0);
+            throw new HttpTimeoutException(String.format(
+                    "No free %s connection slot within %d ms", integration, settings.requestTimeout().toMillis()));
+        }
+        long start = System.nanoTime();
+        String outcome = "IO_ERROR";
+        HttpResponse<T> response = null;
+        try {
+            response = httpClient.send(request, handler);
+            outcome = String.valueOf(response.statusCode());
+            return response;
+        } catch (HttpTimeoutException e) {
+            outcome = "TIMEOUT";
+            throw e;
+        } catch (InterruptedException e) {
+            outcome = "CANCELLED";
+            throw e;
+        } finally {
+            if (response == null || !holdUntilClosed) {
+                permits.release();
+                record(endpoint, outcome, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Body of a streamed exchange: releases the exchange's slot and records its latency when closed,
+     * and closes itself once the body deadline passes, so a stalled body cannot block a reader forever.
+     */
+    private final class MeteredBody extends FilterInputStream {
+        private final String endpoint;
+        private final String outcome;
+        private final long start;
+        private final ScheduledFuture<?> deadline;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean expired;
+
+        MeteredBody(InputStream in, String endpoint, String outcome, long start) {
+            super(in);
+            this.endpoint = endpoint;
+            this.outcome = outcome;
+            this.start = start;
+            this.deadline = BODY_DEADLINES.schedule(this::expire, settings.requestTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        private void expire() {
+            expired = true;
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // the reader sees the timeout either way
+            }
+        }
+
+        private HttpTimeoutException timeout() {
+            return new HttpTimeoutException(String.format("%s response body not read within %d ms",
+                    integration, settings.requestTimeout().toMillis()));
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int b = super.read();
+                if (expired) throw timeout();
+                return b;
+            } catch (IOException e) {
+                throw expired ? timeout() : e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                int n = super.read(b, off, len);
+                if (expired) throw timeout();
+                return n;
+            } catch (IOException e) {
+                throw expired ? timeout() : e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed.compareAndSet(false, true)) return;
+            deadline.cancel(false);
+            try {
+                super.close();
+            } finally {
+                permits.release();
+                record(endpoint, expired ? "TIMEOUT" : outcome, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor bodyDeadlineScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+                Thread.ofPlatform().name("http-body-deadline").daemon().factory());
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    private void record(String endpoint, String outcome, long elapsedNanos) {
+        Timer.builder(METRIC_NAME)
+                .description("Latency of outbound integration calls")
+                .tag("integration", integration)
+                .tag("endpoint", endpoint)
+                .tag("outcome", outcome)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static boolean isGzip(HttpResponse.ResponseInfo info) {
+        return info.headers().firstValue("Content-Encoding")
+                .map(v -> v.equalsIgnoreCase("gzip"))
+                .orElse(false);
+    }
+
+    private static boolean isGzip(HttpResponse<?> response) {
+        return response.headers().firstValue("Content-Encoding")
+                .map(v -> v.equalsIgnoreCase("gzip"))
+                .orElse(false);
+    }
+
+    private static HttpResponse.BodyHandler<String> gzipAwareString() {
+        return info -> {
+            if (!isGzip(info)) {
+                return HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8);
+            }
+            return HttpResponse.BodySubscribers.mapping(
+                    HttpResponse.BodySubscribers.ofByteArray(),
+                    bytes -> new String(gunzip(bytes), StandardCharsets.UTF_8));
+        };
+    }
+
+    /**
+     * Defers reading the gzip header until the first read, so creating the stream never blocks.
+     */
+    private static class LazyGzipInputStream extends FilterInputStream {
+        private final InputStream raw;
+        private boolean opened;
+
+        LazyGzipInputStream(InputStream raw) {
+            super(raw);
+            this.raw = raw;
+        }
+
+        private void open() throws IOException {
+            if (!opened) {
+                in = new GZIPInputStream(raw, 64 * 1024);
+                opened = true;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            open();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            open();
+            return in.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            open();
+            return in.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return opened ? in.available() : 0;
+        }
+    }
+
+    private static byte[] gunzip(byte[] compressed) {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decompress gzip response", e);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.secfix.todos.http;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Builds and caches one {@link OutboundHttpClient} per integration and base URL; the http2 default
+ * depends on the URL, so an integration reached at two endpoints gets a client for each.
+ *
+ * Settings are read from {@code sectool.http.<integration>.*} and fall back to
+ * {@code sectool.http.default.*}. HTTP/2 is negotiated for https endpoints unless
+ * {@code sectool.http.<integration>.http2} says otherwise; plain-http services
+ * (Kreuzberg, local Ollama) stay on HTTP/1.1 to avoid h2c upgrade requests.
+ */
+@Component
+public class OutboundHttpClients {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundHttpClients.class);
+
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<ClientKey, OutboundHttpClient> clients = new ConcurrentHashMap<>();
+
+    private record ClientKey(String integration, String baseUrl) {}
+
+    public OutboundHttpClients(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public OutboundHttpClient forIntegration(String integration, String baseUrl) {
+        return clients.computeIfAbsent(new ClientKey(integration, baseUrl), key -> {
+            String name = key.integration();
+            OutboundHttpClient.Settings settings = settingsFor(name, baseUrl);
+            logger.info("Outbound HTTP client <{}> for {}: connectTimeout={}ms, requestTimeout={}ms, maxConcurrency={}, http2={}",
+                    name, baseUrl, settings.connectTimeout().toMillis(), settings.requestTimeout().toMillis(),
+                    settings.maxConcurrency(), settings.http2());
+            return new OutboundHttpClient(name, settings, executor, meterRegistry);
+        });
+    }
+
+    private OutboundHttpClient.Settings settingsFor(String integration, String baseUrl) {
+        boolean https = baseUrl != null && baseUrl.startsWith("https://");
+        return new OutboundHttpClient.Settings(
+                Duration.ofMillis(property(integration, "connect-timeout-ms", Long.class, 5_000L)),
+                Duration.ofMillis(property(integration, "request-timeout-ms", Long.class, 60_000L)),
+                property(integration, "max-concurrency", Integer.class, 16),
+                property(integration, "http2", Boolean.class, https));
+    }
+
+    private <T> T property(String integration, String key, Class<T> type, T fallback) {
+        T value = environment.getProperty("sectool.http." + integration + "." + key, type);
+        if (value != null) return value;
+        return environment.getProperty("sectool.http.default." + key, type, fallback);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,14 +1,17 @@
 package com.secfix.todos.services;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.secfix.todos.exceptions.LlmCallException;
+import com.secfix.todos.http.JsonResponseReader;
+import com.secfix.todos.http.OutboundHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -20,17 +23,18 @@ public class AnthropicLlmClient implements LlmClient {
     private final String baseUrl;
     private final String apiKey;
     private final String model;
-    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final OutboundHttpClient httpClient;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public AnthropicLlmClient(String baseUrl, String apiKey, String model) {
+    public AnthropicLlmClient(OutboundHttpClient httpClient, String baseUrl, String apiKey, String model) {
+        this.httpClient = httpClient;
         this.baseUrl = baseUrl;
         this.apiKey = apiKey;
         this.model = model;
     }
 
     @Override
-    public String complete(String systemPrompt, String userPrompt) {
+    public String completeOrThrow(String systemPrompt, String userPrompt) {
         try {
             var messages = List.of(
                 Map.of("role", "user", "content", userPrompt)
@@ -43,33 +47,132 @@ public class AnthropicLlmClient implements LlmClient {
             );
             String body = objectMapper.writeValueAsString(payload);
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(baseUrl + "/v1/messages"))
+            HttpRequest request = httpClient.request(baseUrl + "/v1/messages")
                     .header("Content-Type", "application/json")
                     .header("x-api-key", apiKey)
                     .header("anthropic-version", ANTHROPIC_VERSION)
                     .POST(HttpRequest.BodyPublishers.ofString(body))
                     .build();
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            try (OutboundHttpClient.StreamResponse response = httpClient.sendForStream("messages", request)) {
+                if (response.statusCode() != 200) {
+                    logger.error("Anthropic API returned status {}: {}", response.statusCode(), response.snippet(500));
+                    throw new LlmCallException("Error: Anthropic API returned status " + response.statusCode());
+                }
 
+                String text = JsonResponseReader.readText(response.body(), "content", 0, "text");
+                if (text.isEmpty()) {
+                    logger.warn("Anthropic response had no text content");
+                }
+                return text;
+            }
+        } catch (LlmCallException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LlmCallException("Error generating response: request cancelled", e);
+        } catch (Exception e) {
+            logger.error("Anthropic LLM call failed", e);
+            throw new LlmCallException("Error generating response: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean supportsBatch() {
+        return true;
+    }
+
+    @Override
+    public String submitBatch(List<BatchPrompt> prompts) {
+        try {
+            var requests = prompts.stream().map(p -> Map.of(
+                "custom_id", p.customId(),
+                "params", Map.of(
+                    "model", model,
+                    "max_tokens", DEFAULT_MAX_TOKENS,
+                    "system", p.systemPrompt(),
+                    "messages", List.of(Map.of("role", "user", "content", p.userPrompt()))
+                )
+            )).toList();
+            String body = objectMapper.writeValueAsString(Map.of("requests", requests));
+
+            HttpRequest request = authorized(httpClient.request(baseUrl + "/v1/messages/batches"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+            HttpResponse<String> response = httpClient.send("messages/batches", request);
             if (response.statusCode() != 200) {
-                logger.error("Anthropic API returned status {}: {}", response.statusCode(),
+                logger.error("Anthropic batch submit returned status {}: {}", response.statusCode(),
                         response.body().length() > 500 ? response.body().substring(0, 500) : response.body());
-                return "Error: Anthropic API returned status " + response.statusCode();
+                throw new LlmCallException("Error: Anthropic batch API returned status " + response.statusCode());
             }
+            String batchId = objectMapper.readTree(response.body()).path("id").asText();
+            logger.info("Submitted Anthropic message batch {} with {} requests", batchId, prompts.size());
+            return batchId;
+        } catch (LlmCallException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LlmCallException("Error submitting batch: request cancelled", e);
+        } catch (Exception e) {
+            logger.error("Anthropic batch submit failed", e);
+            throw new LlmCallException("Error submitting batch: " + e.getMessage(), e);
+        }
+    }
 
-            JsonNode json = objectMapper.readTree(response.body());
-            JsonNode content = json.get("content");
-            if (content != null && content.isArray() && !content.isEmpty()) {
-                return content.get(0).path("text").asText("");
+    @Override
+    public BatchStatus getBatch(String batchId) {
+        try {
+            HttpRequest request = authorized(httpClient.request(baseUrl + "/v1/messages/batches/" + batchId))
+                    .GET()
+                    .build();
+            HttpResponse<String> response = httpClient.send("messages/batches", request);
+            if (response.statusCode() != 200) {
+                throw new LlmCallException("Error: Anthropic batch API returned status " + response.statusCode());
+            }
+            JsonNode batch = objectMapper.readTree(response.body());
+            if (!"ended".equals(batch.path("processing_status").asText())) {
+                return new BatchStatus(batchId, false, Map.of(), Map.of());
             }
 
-            logger.warn("Anthropic response had no content: {}", response.body());
-            return "";
+            Map<String, String> answers = new HashMap<>();
+            Map<String, String> errors = new HashMap<>();
+            String resultsUrl = batch.path("results_url").asText(null);
+            if (resultsUrl != null) {
+                HttpRequest resultsRequest = authorized(httpClient.request(resultsUrl)).GET().build();
+                try (OutboundHttpClient.StreamResponse results = httpClient.sendForStream("messages/batches/results", resultsRequest)) {
+                    if (results.statusCode() != 200) {
+                        throw new LlmCallException("Error: Anthropic batch results returned status " + results.statusCode());
+                    }
+                    MappingIterator<JsonNode> entries = JsonResponseReader.readJsonLines(results.body());
+                    while (entries.hasNextValue()) {
+                        JsonNode entry = entries.nextValue();
+                        String customId = entry.path("custom_id").asText();
+                        JsonNode result = entry.path("result");
+                        if ("succeeded".equals(result.path("type").asText())) {
+                            answers.put(customId, result.path("message").path("content").path(0).path("text").asText(""));
+                        } else {
+                            errors.put(customId, result.path("type").asText("unknown") + ": "
+                                    + result.path("error").path("error").path("message").asText(""));
+                        }
+                    }
+                }
+            }
+            return new BatchStatus(batchId, true, answers, errors);
+        } catch (LlmCallException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LlmCallException("Error polling batch: request cancelled", e);
         } catch (Exception e) {
-            logger.error("Anthropic LLM call failed", e);
-            return "Error generating response: " + e.getMessage();
+            logger.error("Anthropic batch poll failed for {}", batchId, e);
+            throw new LlmCallException("Error polling batch: " + e.getMessage(), e);
         }
     }
+
+    private HttpRequest.Builder authorized(HttpRequest.Builder builder) {
+        return builder
+                .header("x-api-key", apiKey)
+                .header("anthropic-version", ANTHROPIC_VERSION);
+    }
 }
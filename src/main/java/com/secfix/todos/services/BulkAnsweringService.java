@@ -0,0 +1,251 @@
+package com.secfix.todos.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.secfix.todos.database.models.LlmBatchJob;
+import com.secfix.todos.database.models.QuestionnaireItem;
+import com.secfix.todos.database.repositories.LlmBatchJobRepository;
+import com.secfix.todos.database.repositories.QuestionnaireItemRepository;
+import com.secfix.todos.enums.LlmBatchJobStatus;
+import com.secfix.todos.enums.QuestionnaireItemState;
+import com.secfix.todos.exceptions.ApiServiceCallException;
+import com.secfix.todos.tenancy.TenantContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Answers every unanswered item of a questionnaire through the provider's batch API.
+ *
+ * Retrieval runs locally; only the LLM prompts go into the provider batch. Submitting only records
+ * the job as PREPARING, and a scheduled cycle runs retrieval and submits the batch, so a job survives
+ * a restart (a preparation whose claim was not renewed for {@code prepare-timeout-ms} is taken over;
+ * the preparing instance renews it after every item and gives up once it lost it).
+ * A second cycle picks up finished batches and stores the answers as suggestions of the items that
+ * are still unanswered. Items the provider failed on are queued again as a follow-up job, up to
+ * {@code max-attempts} jobs. Intended for large questionnaires where throughput and cost matter
+ * more than latency.
+ */
+@Service
+public class BulkAnsweringService {
+    private static final Logger logger = LoggerFactory.getLogger(BulkAnsweringService.class);
+
+    private record BatchItem(UUID itemId, List<String> citations, double topScore) {}
+
+    private final LlmBatchJobRepository batchJobRepo;
+    private final QuestionnaireItemRepository itemRepo;
+    private final QuestionnairesService questionnairesService;
+    private final RagService ragService;
+    private final LlmClient llmClient;
+    private final ModelWarmUpService modelWarmUp;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${sectool.llm.batch.prepare-timeout-ms:900000}")
+    private long prepareTimeoutMs;
+
+    @Value("${sectool.llm.batch.max-attempts:3}")
+    private int maxAttempts;
+
+    public BulkAnsweringService(LlmBatchJobRepository batchJobRepo,
+                                QuestionnaireItemRepository itemRepo,
+                                QuestionnairesService questionnairesService,
+                                RagService ragService,
+                                LlmClient llmClient,
+                                ModelWarmUpService modelWarmUp) {
+        this.batchJobRepo = batchJobRepo;
+        this.itemRepo = itemRepo;
+        this.questionnairesService = questionnairesService;
+        this.ragService = ragService;
+        this.llmClient = llmClient;
+        this.modelWarmUp = modelWarmUp;
+    }
+
+    public LlmBatchJob submit(UUID questionnaireId) {
+        UUID tenantId = TenantContext.getTenantId();
+        questionnairesService.getById(questionnaireId);
+        if (!llmClient.supportsBatch()) {
+            throw new ApiServiceCallException("Configured LLM provider does not support batch answering", HttpStatus.BAD_REQUEST);
+        }
+
+        List<QuestionnaireItem> items = itemRepo.findByTenantIdAndQuestionnaireIdOrderByItemIndex(tenantId, questionnaireId)
+                .stream()
+                .filter(i -> i.getCurrentState() == QuestionnaireItemState.UNANSWERED)
+                .toList();
+        if (items.isEmpty()) {
+            throw new ApiServiceCallException("Questionnaire has no unanswered items", HttpStatus.BAD_REQUEST);
+        }
+
+        LlmBatchJob job = new LlmBatchJob();
+        job.setTenantId(tenantId);
+        job.setQuestionnaireId(questionnaireId);
+        job.setStatus(LlmBatchJobStatus.PREPARING);
+        job.setItemCount(items.size());
+        return batchJobRepo.save(job);
+    }
+
+    public List<LlmBatchJob> list(UUID questionnaireId) {
+        UUID tenantId = TenantContext.getTenantId();
+        questionnairesService.getById(questionnaireId);
+        return batchJobRepo.findByTenantIdAndQuestionnaireIdOrderByCreatedAtDesc(tenantId, questionnaireId);
+    }
+
+    @Scheduled(fixedDelayString = "${sectool.llm.batch.poll-interval-ms:60000}")
+    public void pollSubmittedBatches() {
+        for (LlmBatchJob job : batchJobRepo.findByStatus(LlmBatchJobStatus.SUBMITTED)) {
+            try {
+                LlmClient.BatchStatus status = llmClient.getBatch(job.getProviderBatchId());
+                if (status.ended()) {
+                    applyResults(job, status);
+                }
+            } catch (Exception e) {
+                logger.warn("Polling LLM batch {} for job {} failed: {}", job.getProviderBatchId(), job.getId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Claims PREPARING jobs and runs their retrieval and batch submission, each on its own virtual
+     * thread: retrieval embeds every question, which can take a while for large questionnaires and
+     * must not hold up the scheduler.
+     */
+    @Scheduled(fixedDelayString = "${sectool.llm.batch.prepare-interval-ms:5000}")
+    public void prepareQueuedJobs() {
+        for (LlmBatchJob job : batchJobRepo.findByStatus(LlmBatchJobStatus.PREPARING)) {
+            // Postgres keeps microseconds; the claim is renewed by comparing against this value
+            Instant now = Instant.now().truncatedTo(ChronoUnit.MICROS);
+            if (batchJobRepo.claimPreparation(job.getId(), now, now.minusMillis(prepareTimeoutMs)) == 0) {
+                continue;
+            }
+            job.setPrepareStartedAt(now);
+            Thread.ofVirtual().name("bulk-answer-" + job.getId()).start(() -> prepareAndSubmit(job));
+        }
+    }
+
+    private void prepareAndSubmit(LlmBatchJob job) {
+        UUID tenantId = job.getTenantId();
+        try {
+            modelWarmUp.warmUpForBulkJob();
+            // items answered since the job was submitted (or by an earlier, interrupted run) are left alone
+            List<QuestionnaireItem> items = itemRepo.findByTenantIdAndQuestionnaireIdOrderByItemIndex(tenantId, job.getQuestionnaireId())
+                    .stream()
+                    .filter(i -> i.getCurrentState() == QuestionnaireItemState.UNANSWERED)
+                    .toList();
+            List<LlmClient.BatchPrompt> prompts = new ArrayList<>();
+            List<BatchItem> batchItems = new ArrayList<>();
+            int immediate = 0;
+            for (QuestionnaireItem item : items) {
+                if (!renewClaim(job)) return;
+                RagService.PreparedSuggestion prepared = ragService.prepare(item.getQuestionText(), tenantId);
+                if (prepared.immediateResult() != null) {
+                    if (questionnairesService.recordSuggestionIfUnanswered(tenantId, item.getId(), prepared.immediateResult())) {
+                        immediate++;
+                    }
+                    continue;
+                }
+                prompts.add(new LlmClient.BatchPrompt(item.getId().toString(), prepared.systemPrompt(), prepared.userPrompt()));
+                batchItems.add(new BatchItem(item.getId(), prepared.citations(), prepared.topScore()));
+            }
+
+            job.setCompletedCount(immediate);
+            job.setItems(objectMapper.writeValueAsString(batchItems));
+            if (prompts.isEmpty()) {
+                job.setStatus(LlmBatchJobStatus.COMPLETED);
+            } else {
+                if (!renewClaim(job)) return;
+                job.setProviderBatchId(llmClient.submitBatch(prompts));
+                job.setStatus(LlmBatchJobStatus.SUBMITTED);
+            }
+            batchJobRepo.save(job);
+            questionnairesService.updateProgress(tenantId, job.getQuestionnaireId());
+            logger.info("Bulk answering job {}: {} items answered locally, {} sent to provider batch {}",
+                    job.getId(), immediate, prompts.size(), job.getProviderBatchId());
+        } catch (Exception e) {
+            logger.error("Bulk answering job {} failed during submission", job.getId(), e);
+            job.setStatus(LlmBatchJobStatus.FAILED);
+            job.setErrorMessage(e.getMessage());
+            batchJobRepo.save(job);
+        }
+    }
+
+    /**
+     * Renews the job's preparation claim so that no other instance takes it over while retrieval is
+     * still running; false if one did anyway (this instance stalled past {@code prepare-timeout-ms}),
+     * in which case that instance prepares and submits the job.
+     */
+    private boolean renewClaim(LlmBatchJob job) {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MICROS);
+        if (batchJobRepo.renewPreparation(job.getId(), job.getPrepareStartedAt(), now) == 0) {
+            logger.warn("Bulk answering job {} was taken over by another instance, abandoning this preparation", job.getId());
+            return false;
+        }
+        job.setPrepareStartedAt(now);
+        return true;
+    }
+
+    private void applyResults(LlmBatchJob job, LlmClient.BatchStatus status) throws Exception {
+        List<BatchItem> batchItems = objectMapper.readValue(job.getItems(), new TypeReference<>() {});
+        int completed = job.getCompletedCount();
+        int failed = 0;
+        int skipped = 0;
+        for (BatchItem batchItem : batchItems) {
+            String answer = status.answers().get(batchItem.itemId().toString());
+            if (answer == null) {
+                failed++;
+                String error = status.errors().get(batchItem.itemId().toString());
+                if (error != null) {
+                    logger.warn("Batch item {} of job {} failed: {}", batchItem.itemId(), job.getId(), error);
+                }
+                continue;
+            }
+            RagService.SuggestionResult result = ragService.toSuggestionResult(answer, batchItem.citations(), batchItem.topScore());
+            if (questionnairesService.recordSuggestionIfUnanswered(job.getTenantId(), batchItem.itemId(), result)) {
+                completed++;
+            } else {
+                skipped++;
+            }
+        }
+
+        if (batchJobRepo.markCompleted(job.getId(), completed, failed) == 0) {
+            logger.info("Results of bulk answering job {} were already applied by another instance", job.getId());
+            return;
+        }
+        questionnairesService.updateProgress(job.getTenantId(), job.getQuestionnaireId());
+        logger.info("Bulk answering job {} completed: {} answered, {} failed, {} answered by users meanwhile",
+                job.getId(), completed, failed, skipped);
+        if (failed > 0) {
+            retryFailedItems(job, failed);
+        }
+    }
+
+    /**
+     * Queues a follow-up job for items the provider failed to answer. Like any job it prepares the
+     * items that are still unanswered, which are those (less any that users answered meanwhile).
+     * After {@code max-attempts} jobs the items are left unanswered, counted in the job's failed count.
+     */
+    private void retryFailedItems(LlmBatchJob job, int failed) {
+        int attempt = job.getAttempt() != null ? job.getAttempt() : 1;
+        if (attempt >= maxAttempts) {
+            logger.warn("Bulk answering job {}: {} items failed on attempt {}, leaving them unanswered",
+                    job.getId(), failed, attempt);
+            return;
+        }
+        LlmBatchJob retry = new LlmBatchJob();
+        retry.setTenantId(job.getTenantId());
+        retry.setQuestionnaireId(job.getQuestionnaireId());
+        retry.setStatus(LlmBatchJobStatus.PREPARING);
+        retry.setItemCount(failed);
+        retry.setAttempt(attempt + 1);
+        retry = batchJobRepo.save(retry);
+        logger.info("Bulk answering job {}: {} failed items queued again as job {} (attempt {})",
+                job.getId(), failed, retry.getId(), attempt + 1);
+    }
+}
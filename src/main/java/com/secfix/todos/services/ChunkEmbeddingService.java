@@ -0,0 +1,152 @@
+package com.secfix.todos.services;
+
+import com.secfix.todos.database.models.KbChunk;
+import com.secfix.todos.database.models.KbEmbedding;
+import com.secfix.todos.database.models.Tenant;
+import com.secfix.todos.database.repositories.KbChunkRepository;
+import com.secfix.todos.database.repositories.KbEmbeddingRepository;
+import com.secfix.todos.database.repositories.TenantRepository;
+import com.secfix.todos.enums.EmbeddingStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Embeds knowledge-base chunks in checkpointed batches.
+ *
+ * Each batch is committed on its own, recording per-chunk {@link EmbeddingStatus}, so a retry
+ * or the repair job only re-embeds chunks that are not yet EMBEDDED. A zero vector from the
+ * provider marks the chunk FAILED instead of being stored. Vectors are stored under the current
+ * model id; vectors of other models are left alone for tenants still served from them. While a
+ * tenant is being re-embedded, new chunks are also embedded with the model its retrieval still
+ * searches, so they are searchable before the tenant switches to the current model.
+ */
+@Service
+public class ChunkEmbeddingService {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkEmbeddingService.class);
+
+    public record EmbedOutcome(int embedded, int failed) {}
+
+    private final KbChunkRepository chunkRepo;
+    private final KbEmbeddingRepository embeddingRepo;
+    private final EmbeddingCacheService embeddingCache;
+    private final EmbeddingModelRegistry embeddingModels;
+    private final TenantRepository tenantRepo;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${sectool.embeddings.checkpoint-size:256}")
+    private int checkpointSize;
+
+    public ChunkEmbeddingService(KbChunkRepository chunkRepo, KbEmbeddingRepository embeddingRepo,
+                                 EmbeddingCacheService embeddingCache, EmbeddingModelRegistry embeddingModels,
+                                 TenantRepository tenantRepo, TransactionTemplate transactionTemplate) {
+        this.chunkRepo = chunkRepo;
+        this.embeddingRepo = embeddingRepo;
+        this.embeddingCache = embeddingCache;
+        this.embeddingModels = embeddingModels;
+        this.tenantRepo = tenantRepo;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * Embeds the chunks that are not EMBEDDED yet; chunks already embedded are skipped.
+     */
+    public EmbedOutcome embedPending(UUID tenantId, List<KbChunk> chunks) {
+        List<KbChunk> pending = chunks.stream()
+                .filter(c -> c.getEmbeddingStatus() != EmbeddingStatus.EMBEDDED)
+                .toList();
+        if (pending.size() < chunks.size()) {
+            logger.info("Resuming embedding: {} of {} chunks already embedded", chunks.size() - pending.size(), chunks.size());
+        }
+        EmbedOutcome outcome = embedAll(tenantId, pending);
+        embedForServingModel(tenantId, pending);
+        return outcome;
+    }
+
+    /**
+     * Embeds the chunks with the current model regardless of their status; used to re-embed
+     * chunks that only have vectors of a previous model.
+     */
+    public EmbedOutcome embedAll(UUID tenantId, List<KbChunk> pending) {
+        int embedded = 0;
+        int failed = 0;
+        for (int from = 0; from < pending.size(); from += checkpointSize) {
+            List<KbChunk> batch = pending.subList(from, Math.min(pending.size(), from + checkpointSize));
+            List<float[]> vectors = embeddingCache.embed(tenantId, batch.stream().map(KbChunk::getText).toList());
+            int batchFailed = checkpoint(tenantId, batch, vectors, embeddingModels.current().modelId(), true);
+            failed += batchFailed;
+            embedded += batch.size() - batchFailed;
+        }
+        return new EmbedOutcome(embedded, failed);
+    }
+
+    /**
+     * Stores the chunks' vectors of the tenant's serving model when that is not the current model,
+     * i.e. while the re-embed job has not switched the tenant yet. A failure here only delays
+     * retrieval of the chunks until the switch, so it is logged instead of failing the stage.
+     */
+    private void embedForServingModel(UUID tenantId, List<KbChunk> chunks) {
+        String activeModel = tenantRepo.findById(tenantId).map(Tenant::getActiveEmbeddingModel).orElse(null);
+        EmbeddingsClient serving = embeddingModels.serving(activeModel);
+        if (serving.modelId().equals(embeddingModels.current().modelId())) return;
+        List<KbChunk> embedded = chunks.stream()
+                .filter(c -> c.getEmbeddingStatus() == EmbeddingStatus.EMBEDDED)
+                .toList();
+        if (embedded.isEmpty()) return;
+        try {
+            for (int from = 0; from < embedded.size(); from += checkpointSize) {
+                List<KbChunk> batch = embedded.subList(from, Math.min(embedded.size(), from + checkpointSize));
+                List<float[]> vectors = embeddingCache.embed(tenantId, batch.stream().map(KbChunk::getText).toList(), serving);
+                checkpoint(tenantId, batch, vectors, serving.modelId(), false);
+            }
+            logger.info("Tenant {} is migrating embedding models; {} chunks also embedded with {}",
+                    tenantId, embedded.size(), serving.modelId());
+        } catch (Exception e) {
+            logger.warn("Embedding chunks of tenant {} with its serving model {} failed; they become searchable at the model switch",
+                    tenantId, serving.modelId(), e);
+        }
+    }
+
+    /**
+     * Replaces the batch's vectors of {@code model}. With {@code trackStatus}, each chunk is marked
+     * EMBEDDED or FAILED; otherwise chunks without a usable vector are only skipped.
+     */
+    private int checkpoint(UUID tenantId, List<KbChunk> batch, List<float[]> vectors, String model, boolean trackStatus) {
+        Integer failed = transactionTemplate.execute(status -> {
+            embeddingRepo.deleteByChunkIdInAndEmbeddingModel(batch.stream().map(KbChunk::getId).toList(), model);
+            List<KbEmbedding> embeddings = new ArrayList<>();
+            List<UUID> embeddedIds = new ArrayList<>();
+            List<UUID> failedIds = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                KbChunk chunk = batch.get(i);
+                float[] vector = i < vectors.size() ? vectors.get(i) : new float[0];
+                if (vector.length == 0 || EmbeddingCodec.isZero(vector)) {
+                    if (trackStatus) chunk.setEmbeddingStatus(EmbeddingStatus.FAILED);
+                    failedIds.add(chunk.getId());
+                    continue;
+                }
+                KbEmbedding emb = new KbEmbedding();
+                emb.setTenantId(tenantId);
+                emb.setChunkId(chunk.getId());
+                emb.setEmbeddingModel(model);
+                emb.setEmbedding(EmbeddingCodec.serialize(vector));
+                embeddings.add(emb);
+                if (trackStatus) chunk.setEmbeddingStatus(EmbeddingStatus.EMBEDDED);
+                embeddedIds.add(chunk.getId());
+            }
+            embeddingRepo.saveAll(embeddings);
+            if (!trackStatus) return failedIds.size();
+            // the chunks are detached; a bulk update avoids merging (and selecting) them one by one
+            if (!embeddedIds.isEmpty()) chunkRepo.updateEmbeddingStatus(embeddedIds, EmbeddingStatus.EMBEDDED);
+            if (!failedIds.isEmpty()) chunkRepo.updateEmbeddingStatus(failedIds, EmbeddingStatus.FAILED);
+            return failedIds.size();
+        });
+        return failed != null ? failed : 0;
+    }
+}
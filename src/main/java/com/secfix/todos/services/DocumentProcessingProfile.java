@@ -0,0 +1,32 @@
+package com.secfix.todos.services;
+
+import com.secfix.todos.enums.DocumentType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Which document types are indexed as knowledge sources ({@code sectool.processing.indexed-types}).
+ *
+ * Only indexed types are chunked and embedded by the processing pipeline, and only their chunks
+ * are searched by RAG retrieval. Questionnaires are not indexed by default: they are what we
+ * answer, not evidence to answer from.
+ */
+@Component
+public class DocumentProcessingProfile {
+    private final Set<DocumentType> indexedTypes;
+
+    public DocumentProcessingProfile(@Value("${sectool.processing.indexed-types:POLICY,OTHER}") Set<DocumentType> indexedTypes) {
+        this.indexedTypes = indexedTypes.isEmpty() ? EnumSet.noneOf(DocumentType.class) : EnumSet.copyOf(indexedTypes);
+    }
+
+    public boolean isIndexed(DocumentType type) {
+        return indexedTypes.contains(type);
+    }
+
+    public Set<DocumentType> indexedTypes() {
+        return indexedTypes;
+    }
+}
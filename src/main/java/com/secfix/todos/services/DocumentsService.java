@@ -11,11 +11,13 @@ import com.secfix.todos.database.repositories.DocumentVersionRepository;
 import com.secfix.todos.enums.DocumentArtifactKind;
 import com.secfix.todos.enums.DocumentType;
 import com.secfix.todos.enums.DocumentVersionStatus;
+import com.secfix.todos.enums.ProcessingJobPriority;
 import com.secfix.todos.enums.ProcessingJobStage;
 import com.secfix.todos.enums.ProcessingJobStatus;
 import com.secfix.todos.exceptions.ApiServiceCallException;
 import com.secfix.todos.storage.StorageService;
 import com.secfix.todos.tenancy.TenantContext;
+import com.secfix.todos.worker.JobNotifications;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
@@ -39,17 +41,20 @@ public class DocumentsService {
     private final DocumentArtifactRepository documentArtifactRepository;
     private final DocumentProcessingJobRepository documentProcessingJobRepository;
     private final StorageService storageService;
+    private final JobNotifications jobNotifications;
 
     public DocumentsService(DocumentRepository documentRepository,
                             DocumentVersionRepository documentVersionRepository,
                             DocumentArtifactRepository documentArtifactRepository,
                             DocumentProcessingJobRepository documentProcessingJobRepository,
-                            StorageService storageService) {
+                            StorageService storageService,
+                            JobNotifications jobNotifications) {
         this.documentRepository = documentRepository;
         this.documentVersionRepository = documentVersionRepository;
         this.documentArtifactRepository = documentArtifactRepository;
         this.documentProcessingJobRepository = documentProcessingJobRepository;
         this.storageService = storageService;
+        this.jobNotifications = jobNotifications;
     }
 
     public Document createDocument(String title, DocumentType type, String source) {
@@ -123,7 +128,10 @@ public class DocumentsService {
         job.setDocumentVersionId(version.getId());
         job.setStage(ProcessingJobStage.PARSE);
         job.setStatus(ProcessingJobStatus.PENDING);
+        // a user is waiting on this document; bulk and background work runs at lower priority
+        job.setPriority(ProcessingJobPriority.HIGH);
         documentProcessingJobRepository.save(job);
+        jobNotifications.jobEnqueued(ProcessingJobStage.PARSE);
 
         logger.info("Upload completed for version <{}>, processing job created", versionId);
         return version;
@@ -0,0 +1,170 @@
+package com.secfix.todos.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Splits embedding inputs into provider-sized requests and sends them concurrently.
+ *
+ * Batches are cut by item count and by an approximate token budget (about four characters per
+ * token), so large documents stay under the provider's per-request limits. Up to
+ * {@code maxParallelBatches} requests run at once; results are reassembled in input order.
+ * A failed batch is retried on its own, and only after {@code maxAttempts} does it fall back to
+ * zero vectors, leaving the other batches intact. This is the only retry layer: embedders make a
+ * single request per call and report a rate limit with {@link RateLimitedException}, which backs
+ * off exponentially from {@value #RATE_LIMIT_BACKOFF_MS} ms instead of the short error backoff.
+ */
+public class EmbeddingBatcher {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingBatcher.class);
+    private static final long RETRY_BACKOFF_MS = 1_000;
+    private static final long RATE_LIMIT_BACKOFF_MS = 20_000;
+
+    public record Settings(int maxItems, int maxTokens, int maxParallelBatches, int maxAttempts) {}
+
+    /**
+     * Embeds one provider-sized batch; throws when the request failed or returned the wrong number of vectors.
+     */
+    @FunctionalInterface
+    public interface BatchEmbedder {
+        List<float[]> embed(List<String> batch) throws Exception;
+    }
+
+    /**
+     * The provider rejected the request with a rate limit (HTTP 429).
+     */
+    public static class RateLimitedException extends IOException {
+        public RateLimitedException(String message) {
+            super(message);
+        }
+    }
+
+    private record Batch(int offset, List<String> texts) {}
+
+    private final Settings settings;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore parallelBatches;
+
+    public EmbeddingBatcher(Settings settings) {
+        this.settings = settings;
+        this.parallelBatches = new Semaphore(Math.max(1, settings.maxParallelBatches()));
+    }
+
+    public List<float[]> embed(List<String> texts, int dimensions, BatchEmbedder embedder) {
+        List<Batch> batches = split(texts);
+        float[][] results = new float[texts.size()][];
+        if (batches.size() == 1) {
+            place(results, batches.getFirst(), embedWithRetry(batches.getFirst(), dimensions, embedder));
+            return Arrays.asList(results);
+        }
+
+        List<Future<List<float[]>>> futures = new ArrayList<>(batches.size());
+        for (Batch batch : batches) {
+            futures.add(executor.submit(() -> {
+                parallelBatches.acquire();
+                try {
+                    return embedWithRetry(batch, dimensions, embedder);
+                } finally {
+                    parallelBatches.release();
+                }
+            }));
+        }
+        for (int i = 0; i < batches.size(); i++) {
+            Batch batch = batches.get(i);
+            try {
+                place(results, batch, futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                place(results, batch, zeroVectors(batch.texts().size(), dimensions));
+            } catch (ExecutionException e) {
+                logger.error("Embedding batch at offset {} failed", batch.offset(), e.getCause());
+                place(results, batch, zeroVectors(batch.texts().size(), dimensions));
+            }
+        }
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) results[i] = new float[dimensions];
+        }
+        return Arrays.asList(results);
+    }
+
+    private List<Batch> split(List<String> texts) {
+        List<Batch> batches = new ArrayList<>();
+        int start = 0;
+        int tokens = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            int estimate = estimateTokens(texts.get(i));
+            boolean full = i - start >= settings.maxItems() || (i > start && tokens + estimate > settings.maxTokens());
+            if (full) {
+                batches.add(new Batch(start, texts.subList(start, i)));
+                start = i;
+                tokens = 0;
+            }
+            tokens += estimate;
+        }
+        if (start < texts.size()) {
+            batches.add(new Batch(start, texts.subList(start, texts.size())));
+        }
+        return batches;
+    }
+
+    private static int estimateTokens(String text) {
+        return text == null ? 1 : text.length() / 4 + 1;
+    }
+
+    private List<float[]> embedWithRetry(Batch batch, int dimensions, BatchEmbedder embedder) {
+        for (int attempt = 1; attempt <= settings.maxAttempts(); attempt++) {
+            long backoff = RETRY_BACKOFF_MS * attempt;
+            try {
+                List<float[]> vectors = embedder.embed(batch.texts());
+                if (vectors.size() == batch.texts().size()) {
+                    return vectors;
+                }
+                logger.warn("Embedding batch at offset {} returned {} vectors for {} inputs",
+                        batch.offset(), vectors.size(), batch.texts().size());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return zeroVectors(batch.texts().size(), dimensions);
+            } catch (RateLimitedException e) {
+                backoff = RATE_LIMIT_BACKOFF_MS << (attempt - 1);
+                logger.warn("Embedding batch at offset {} rate-limited, retrying in {}s (attempt {}/{})",
+                        batch.offset(), backoff / 1000, attempt, settings.maxAttempts());
+            } catch (Exception e) {
+                logger.warn("Embedding batch at offset {} ({} items) failed (attempt {}/{}): {}",
+                        batch.offset(), batch.texts().size(), attempt, settings.maxAttempts(), e.getMessage());
+            }
+            if (attempt < settings.maxAttempts()) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        logger.error("Embedding batch at offset {} failed after {} attempts, storing {} zero vectors",
+                batch.offset(), settings.maxAttempts(), batch.texts().size());
+        return zeroVectors(batch.texts().size(), dimensions);
+    }
+
+    private static void place(float[][] results, Batch batch, List<float[]> vectors) {
+        for (int i = 0; i < vectors.size(); i++) {
+            results[batch.offset() + i] = vectors.get(i);
+        }
+    }
+
+    private static List<float[]> zeroVectors(int count, int dimensions) {
+        List<float[]> fallback = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) fallback.add(new float[dimensions]);
+        return fallback;
+    }
+}
@@ -0,0 +1,168 @@
+package com.secfix.todos.services;
+
+import com.secfix.todos.database.models.EmbeddingCacheEntry;
+import com.secfix.todos.database.repositories.EmbeddingCacheRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Content-addressed, per-tenant store of chunk embeddings keyed by sha256(model, dimensions, text).
+ *
+ * Re-uploaded documents and boilerplate shared across documents hit the cache and only the
+ * changed or new text goes to the embeddings provider. Failed (zero) vectors are never cached.
+ * Hits and misses are counted in {@code sectool.embeddings.cache.hits/misses}, and
+ * {@code sectool.embeddings.cache.hit.ratio} reports the ratio since startup.
+ */
+@Service
+public class EmbeddingCacheService {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingCacheService.class);
+    private static final int LOOKUP_PAGE_SIZE = 500;
+    private static final String INSERT_SQL = "INSERT INTO embedding_cache " +
+            "(id, tenant_id, content_hash, embedding_model, embedding, created_at) VALUES (?, ?, ?, ?, ?, ?) " +
+            "ON CONFLICT (tenant_id, content_hash) DO NOTHING";
+
+    private final EmbeddingCacheRepository cacheRepo;
+    private final EmbeddingsClient embeddingsClient;
+    private final JdbcTemplate jdbcTemplate;
+    private final Counter hits;
+    private final Counter misses;
+
+    public EmbeddingCacheService(EmbeddingCacheRepository cacheRepo, EmbeddingsClient embeddingsClient,
+                                 JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.cacheRepo = cacheRepo;
+        this.embeddingsClient = embeddingsClient;
+        this.jdbcTemplate = jdbcTemplate;
+        this.hits = Counter.builder("sectool.embeddings.cache.hits").register(meterRegistry);
+        this.misses = Counter.builder("sectool.embeddings.cache.misses").register(meterRegistry);
+        Gauge.builder("sectool.embeddings.cache.hit.ratio", this, EmbeddingCacheService::hitRatio)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns one vector per text, in order, calling the provider only for texts not in the cache.
+     */
+    public List<float[]> embed(UUID tenantId, List<String> texts) {
+        return embed(tenantId, texts, embeddingsClient);
+    }
+
+    /**
+     * As {@link #embed(UUID, List)}, with another model than the current one; entries are keyed
+     * by model, so the models never serve each other's vectors.
+     */
+    public List<float[]> embed(UUID tenantId, List<String> texts, EmbeddingsClient client) {
+        List<String> hashes = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            hashes.add(contentHash(client, text));
+        }
+
+        Map<String, float[]> known = lookup(tenantId, hashes);
+        Map<String, String> missing = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            if (!known.containsKey(hashes.get(i))) {
+                missing.putIfAbsent(hashes.get(i), texts.get(i));
+            }
+        }
+        int hitCount = texts.size() - missing.size();
+        hits.increment(hitCount);
+        misses.increment(missing.size());
+
+        if (!missing.isEmpty()) {
+            List<String> missingHashes = new ArrayList<>(missing.keySet());
+            List<float[]> computed = client.embed(new ArrayList<>(missing.values()));
+            List<EmbeddingCacheEntry> entries = new ArrayList<>();
+            for (int i = 0; i < missingHashes.size() && i < computed.size(); i++) {
+                float[] vector = computed.get(i);
+                known.put(missingHashes.get(i), vector);
+                if (vector.length > 0 && !EmbeddingCodec.isZero(vector)) {
+                    entries.add(newEntry(tenantId, client, missingHashes.get(i), vector));
+                }
+            }
+            store(entries);
+        }
+        logger.info("Embedding cache: {} of {} texts served from cache", hitCount, texts.size());
+
+        List<float[]> result = new ArrayList<>(texts.size());
+        for (String hash : hashes) {
+            float[] vector = known.get(hash);
+            result.add(vector != null ? vector : new float[client.dimensions()]);
+        }
+        return result;
+    }
+
+    private Map<String, float[]> lookup(UUID tenantId, List<String> hashes) {
+        Map<String, float[]> known = new HashMap<>();
+        List<String> distinct = hashes.stream().distinct().toList();
+        for (int from = 0; from < distinct.size(); from += LOOKUP_PAGE_SIZE) {
+            List<String> page = distinct.subList(from, Math.min(distinct.size(), from + LOOKUP_PAGE_SIZE));
+            for (EmbeddingCacheEntry entry : cacheRepo.findByTenantIdAndContentHashIn(tenantId, page)) {
+                float[] vector = EmbeddingCodec.parse(entry.getEmbedding());
+                if (vector.length > 0) known.put(entry.getContentHash(), vector);
+            }
+        }
+        return known;
+    }
+
+    /**
+     * Inserts the entries in one JDBC batch. Texts another worker cached concurrently are skipped
+     * by the unique (tenant, hash) key instead of failing the batch, which would abort the whole
+     * transaction in Postgres.
+     */
+    private void store(List<EmbeddingCacheEntry> entries) {
+        if (entries.isEmpty()) return;
+        Timestamp now = Timestamp.from(Instant.now());
+        jdbcTemplate.batchUpdate(INSERT_SQL, entries, entries.size(), (ps, entry) -> {
+            ps.setObject(1, UUID.randomUUID());
+            ps.setObject(2, entry.getTenantId());
+            ps.setString(3, entry.getContentHash());
+            ps.setString(4, entry.getEmbeddingModel());
+            ps.setString(5, entry.getEmbedding());
+            ps.setTimestamp(6, now);
+        });
+    }
+
+    private EmbeddingCacheEntry newEntry(UUID tenantId, EmbeddingsClient client, String hash, float[] vector) {
+        EmbeddingCacheEntry entry = new EmbeddingCacheEntry();
+        entry.setTenantId(tenantId);
+        entry.setContentHash(hash);
+        entry.setEmbeddingModel(client.modelId());
+        entry.setEmbedding(EmbeddingCodec.serialize(vector));
+        return entry;
+    }
+
+    private static String contentHash(EmbeddingsClient client, String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(client.modelId().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(Integer.toString(client.dimensions()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private double hitRatio() {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0.0 : hits.count() / total;
+    }
+}
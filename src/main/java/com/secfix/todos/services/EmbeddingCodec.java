@@ -0,0 +1,49 @@
+package com.secfix.todos.services;
+
+import java.util.Arrays;
+
+/**
+ * Text form of stored embeddings ({@code "[0.1, -0.2, ...]"}, as written by {@link Arrays#toString(float[])}).
+ */
+public final class EmbeddingCodec {
+
+    private EmbeddingCodec() {}
+
+    public static String serialize(float[] embedding) {
+        return Arrays.toString(embedding);
+    }
+
+    /**
+     * Parses a stored embedding without boxing; returns an empty array for blank or malformed input.
+     */
+    public static float[] parse(String text) {
+        if (text == null) return new float[0];
+        int start = text.indexOf('[');
+        int end = text.lastIndexOf(']');
+        if (start < 0 || end <= start + 1) return new float[0];
+
+        int count = 1;
+        for (int i = start + 1; i < end; i++) {
+            if (text.charAt(i) == ',') count++;
+        }
+        float[] values = new float[count];
+        int from = start + 1;
+        try {
+            for (int i = 0; i < count; i++) {
+                int comma = i == count - 1 ? end : text.indexOf(',', from);
+                values[i] = Float.parseFloat(text.substring(from, comma).trim());
+                from = comma + 1;
+            }
+        } catch (NumberFormatException e) {
+            return new float[0];
+        }
+        return values;
+    }
+
+    public static boolean isZero(float[] embedding) {
+        for (float v : embedding) {
+            if (v != 0.0f) return false;
+        }
+        return true;
+    }
+}
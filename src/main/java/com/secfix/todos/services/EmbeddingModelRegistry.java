@@ -0,0 +1,60 @@
+package com.secfix.todos.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Optional;
+
+/**
+ * Embeddings clients by model id: the configured (current) model, and optionally the previous one
+ * that tenants still being re-embedded are served from.
+ */
+public class EmbeddingModelRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingModelRegistry.class);
+
+    /**
+     * Model label of vectors stored before real model ids were recorded.
+     */
+    public static final String LEGACY_MODEL = "default";
+
+    private final EmbeddingsClient current;
+    private final EmbeddingsClient previous;
+
+    public EmbeddingModelRegistry(EmbeddingsClient current, EmbeddingsClient previous) {
+        this.current = current;
+        this.previous = previous;
+    }
+
+    public EmbeddingsClient current() {
+        return current;
+    }
+
+    /**
+     * The model that produced the vectors stored under {@link #LEGACY_MODEL}: the previous model
+     * when one is configured (the model was changed together with the upgrade), otherwise the
+     * current one.
+     */
+    public EmbeddingsClient legacy() {
+        return previous != null ? previous : current;
+    }
+
+    /**
+     * The model whose vectors a tenant's retrieval searches, given its active model: that model
+     * (so queries stay comparable while the tenant is being re-embedded), the legacy model while
+     * it has none, or the current one if its active model is no longer configured.
+     */
+    public EmbeddingsClient serving(String activeModel) {
+        if (activeModel == null) return legacy();
+        return forModel(activeModel).orElseGet(() -> {
+            logger.warn("Active embedding model {} is not configured, using {}", activeModel, current.modelId());
+            return current;
+        });
+    }
+
+    public Optional<EmbeddingsClient> forModel(String modelId) {
+        if (LEGACY_MODEL.equals(modelId)) return Optional.of(legacy());
+        if (current.modelId().equals(modelId)) return Optional.of(current);
+        if (previous != null && previous.modelId().equals(modelId)) return Optional.of(previous);
+        return Optional.empty();
+    }
+}
@@ -5,4 +5,16 @@ import java.util.List;
 public interface EmbeddingsClient {
     List<float[]> embed(List<String> texts);
     int dimensions();
+
+    /**
+     * Provider model name, used to key cached and stored vectors.
+     */
+    String modelId();
+
+    /**
+     * Loads the model ahead of real traffic for providers that unload idle models (Ollama).
+     * Best effort: failures are logged, never thrown.
+     */
+    default void warmUp() {
+    }
 }
@@ -1,22 +1,74 @@
 package com.secfix.todos.services;
 
+import com.secfix.todos.http.OutboundHttpClient;
+import com.secfix.todos.http.OutboundHttpClients;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
 public class EmbeddingsClientFactory {
+    // one attempt plus five retries, enough to ride out about ten minutes of rate limiting
+    private static final int EMBED_BATCH_ATTEMPTS = 6;
+
+    @Value("${sectool.embeddings.batch-size:64}")
+    private int batchSize;
+
+    @Value("${sectool.embeddings.max-batch-tokens:100000}")
+    private int maxBatchTokens;
+
+    @Value("${sectool.embeddings.max-parallel-batches:4}")
+    private int maxParallelBatches;
+
+    @Value("${sectool.ollama.keep-alive:30m}")
+    private String ollamaKeepAlive;
+
+    @Value("${sectool.embeddings.local.seed:42}")
+    private long localSeed;
 
     @Bean
     public EmbeddingsClient embeddingsClient(
+            OutboundHttpClients httpClients,
             @Value("${sectool.embeddings.provider}") String provider,
             @Value("${sectool.embeddings.base-url}") String baseUrl,
             @Value("${sectool.embeddings.api-key:}") String apiKey,
             @Value("${sectool.embeddings.model}") String model,
-            @Value("${sectool.embeddings.dimensions}") int dimensions) {
-        return switch (provider.toLowerCase()) {
-            case "anthropic", "voyage", "openai" -> new OpenAiEmbeddingsClient(baseUrl, apiKey, model, dimensions);
-            default -> new OllamaEmbeddingsClient(baseUrl, model, dimensions);
+            @Value("${sectool.embeddings.dimensions}") int dimensions,
+            @Value("${sectool.embeddings.truncate-dimensions:0}") int truncateDimensions) {
+        return create(httpClients, "embeddings", provider, baseUrl, apiKey, model, dimensions, truncateDimensions);
+    }
+
+    /**
+     * The current model plus, while tenants are being re-embedded, the model they were embedded with
+     * before ({@code sectool.embeddings.previous.*}), so their queries keep matching their stored vectors.
+     */
+    @Bean
+    public EmbeddingModelRegistry embeddingModelRegistry(
+            EmbeddingsClient embeddingsClient,
+            OutboundHttpClients httpClients,
+            @Value("${sectool.embeddings.previous.provider:}") String provider,
+            @Value("${sectool.embeddings.previous.base-url:}") String baseUrl,
+            @Value("${sectool.embeddings.previous.api-key:}") String apiKey,
+            @Value("${sectool.embeddings.previous.model:}") String model,
+            @Value("${sectool.embeddings.previous.dimensions:1024}") int dimensions,
+            @Value("${sectool.embeddings.previous.truncate-dimensions:0}") int truncateDimensions) {
+        EmbeddingsClient previous = provider.isBlank() ? null
+                : create(httpClients, "embeddings-previous", provider, baseUrl, apiKey, model, dimensions, truncateDimensions);
+        return new EmbeddingModelRegistry(embeddingsClient, previous);
+    }
+
+    private EmbeddingsClient create(OutboundHttpClients httpClients, String integration, String provider, String baseUrl, String apiKey,
+                                    String model, int dimensions, int truncateDimensions) {
+        OutboundHttpClient httpClient = httpClients.forIntegration(integration, baseUrl);
+        EmbeddingsClient client = switch (provider.toLowerCase()) {
+            case "local" -> new LocalHashingEmbeddingsClient(dimensions, localSeed);
+            case "anthropic", "voyage", "openai" -> new OpenAiEmbeddingsClient(httpClient, baseUrl, apiKey, model, dimensions,
+                    new EmbeddingBatcher(new EmbeddingBatcher.Settings(batchSize, maxBatchTokens, maxParallelBatches, EMBED_BATCH_ATTEMPTS)));
+            default -> new OllamaEmbeddingsClient(httpClient, baseUrl, model, dimensions, ollamaKeepAlive, batchSize);
         };
+        if (truncateDimensions > 0 && truncateDimensions < dimensions) {
+            return new TruncatingEmbeddingsClient(client, truncateDimensions);
+        }
+        return client;
     }
 }
@@ -5,7 +5,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.secfix.todos.database.models.CodeRepository;
 import com.secfix.todos.database.models.GithubRepository;
 import com.secfix.todos.enums.CodeRepositoryStatus;
-import java.net.URI;
+import com.secfix.todos.http.OutboundHttpClient;
+import com.secfix.todos.http.OutboundHttpClients;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,15 +15,19 @@ import org.springframework.stereotype.Service;
 @Service
 public class GithubServiceWrapper {
     Logger logger = LoggerFactory.getLogger(GithubServiceWrapper.class);
-    private final java.net.http.HttpClient httpClient = java.net.http.HttpClient.newHttpClient();
+    private static final String GITHUB_API_URL = "https://api.github.com";
+    private final OutboundHttpClient httpClient;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    public GithubServiceWrapper(OutboundHttpClients httpClients) {
+        this.httpClient = httpClients.forIntegration("github", GITHUB_API_URL);
+    }
+
     public CodeRepository getRepository(CodeRepository codeRepository) {
         logger.info("Get Github repository started, <Owner <{}>, Name <{}>>", codeRepository.getOwner(), codeRepository.getName());
         try {
-            java.net.http.HttpRequest request = java.net.http.HttpRequest
-                    .newBuilder()
-                    .uri(URI.create(String.format("https://api.github.com/repos/%s/%s", codeRepository.getOwner(), codeRepository.getName())))
+            java.net.http.HttpRequest request = httpClient
+                    .request(String.format("%s/repos/%s/%s", GITHUB_API_URL, codeRepository.getOwner(), codeRepository.getName()))
                     .header("Content-Type", "application/vnd.github+json")
                     .GET()
                     .build();
@@ -69,9 +74,7 @@ public class GithubServiceWrapper {
     
     private java.net.http.HttpResponse<String> sendHttpRequest(java.net.http.HttpRequest request) throws Exception {
         try {
-            return httpClient.send(
-                    request,
-                    java.net.http.HttpResponse.BodyHandlers.ofString());
+            return httpClient.send("repos", request);
         } catch (Exception ex) {
             this.logger.error("Failed send request to Github api", ex);
             throw ex;
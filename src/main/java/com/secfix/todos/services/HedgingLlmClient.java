@@ -0,0 +1,232 @@
+package com.secfix.todos.services;
+
+import com.secfix.todos.exceptions.LlmCallException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Composite client over a primary and a secondary provider/model.
+ *
+ * A request goes to the primary first. If it has not answered after the configured percentile
+ * of recent primary latencies, a hedged copy is sent to the secondary; the first successful
+ * answer wins and the other call is cancelled. A cancelled primary counts with the time it had
+ * run, a lower bound of its latency. A failed primary call fails over to the
+ * secondary, and a provider that fails repeatedly is skipped until its cooldown expires.
+ */
+public class HedgingLlmClient implements LlmClient {
+    private static final Logger logger = LoggerFactory.getLogger(HedgingLlmClient.class);
+
+    public record Settings(boolean hedgeEnabled, double hedgePercentile, Duration minHedgeDelay,
+                           Duration maxHedgeDelay, int failureThreshold, Duration cooldown) {}
+
+    private final LlmClient primary;
+    private final LlmClient secondary;
+    private final Settings settings;
+    private final ProviderHealth primaryHealth;
+    private final ProviderHealth secondaryHealth;
+    private final LatencyWindow primaryLatencies = new LatencyWindow(256);
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Counter hedgesSent;
+    private final Counter hedgesWon;
+    private final Counter failovers;
+
+    public HedgingLlmClient(LlmClient primary, LlmClient secondary, Settings settings, MeterRegistry meterRegistry) {
+        this.primary = primary;
+        this.secondary = secondary;
+        this.settings = settings;
+        this.primaryHealth = new ProviderHealth("primary", settings.failureThreshold(), settings.cooldown());
+        this.secondaryHealth = new ProviderHealth("secondary", settings.failureThreshold(), settings.cooldown());
+        this.hedgesSent = Counter.builder("sectool.llm.hedge.sent").register(meterRegistry);
+        this.hedgesWon = Counter.builder("sectool.llm.hedge.won").register(meterRegistry);
+        this.failovers = Counter.builder("sectool.llm.failover").register(meterRegistry);
+        for (ProviderHealth health : new ProviderHealth[]{primaryHealth, secondaryHealth}) {
+            Gauge.builder("sectool.llm.provider.available", health, h -> h.isAvailable() ? 1 : 0)
+                    .tag("role", health.role)
+                    .register(meterRegistry);
+        }
+    }
+
+    @Override
+    public String completeOrThrow(String systemPrompt, String userPrompt) {
+        boolean primaryUp = primaryHealth.isAvailable();
+        boolean secondaryUp = secondaryHealth.isAvailable();
+        if (!primaryUp && secondaryUp) {
+            failovers.increment();
+            logger.debug("Primary LLM marked unhealthy, sending request to secondary");
+            return call(secondary, secondaryHealth, systemPrompt, userPrompt);
+        }
+
+        ExecutorCompletionService<String> completion = new ExecutorCompletionService<>(executor);
+        long primaryStart = System.nanoTime();
+        Future<String> primaryCall = completion.submit(() -> call(primary, primaryHealth, systemPrompt, userPrompt));
+        Future<String> secondaryCall = null;
+        int outstanding = 1;
+        LlmCallException lastError = null;
+        try {
+            Future<String> done = settings.hedgeEnabled() && secondaryUp
+                    ? completion.poll(hedgeDelayMs(), TimeUnit.MILLISECONDS)
+                    : completion.take();
+            if (done == null) {
+                hedgesSent.increment();
+                secondaryCall = completion.submit(() -> call(secondary, secondaryHealth, systemPrompt, userPrompt));
+                outstanding++;
+            }
+            while (outstanding > 0) {
+                if (done == null) done = completion.take();
+                outstanding--;
+                try {
+                    String answer = done.get();
+                    if (done == secondaryCall) hedgesWon.increment();
+                    return answer;
+                } catch (ExecutionException e) {
+                    lastError = e.getCause() instanceof LlmCallException lce
+                            ? lce : new LlmCallException("Error generating response: " + e.getCause().getMessage(), e.getCause());
+                    if (done == primaryCall && secondaryCall == null && secondaryUp) {
+                        failovers.increment();
+                        logger.warn("Primary LLM call failed, failing over to secondary: {}", lastError.getMessage());
+                        secondaryCall = completion.submit(() -> call(secondary, secondaryHealth, systemPrompt, userPrompt));
+                        outstanding++;
+                    }
+                }
+                done = null;
+            }
+            throw lastError;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LlmCallException("Error generating response: request cancelled", e);
+        } finally {
+            // a primary still running when the secondary won took at least this long; leaving the
+            // slow calls out of the window would drag the hedge delay down to the fast ones
+            if (primaryCall.cancel(true)) {
+                primaryLatencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - primaryStart));
+            }
+            if (secondaryCall != null) secondaryCall.cancel(true);
+        }
+    }
+
+    @Override
+    public void warmUp() {
+        primary.warmUp();
+        secondary.warmUp();
+    }
+
+    /**
+     * Batch jobs are not latency sensitive, so they always go to the primary provider.
+     */
+    @Override
+    public boolean supportsBatch() {
+        return primary.supportsBatch();
+    }
+
+    @Override
+    public String submitBatch(List<BatchPrompt> prompts) {
+        return primary.submitBatch(prompts);
+    }
+
+    @Override
+    public BatchStatus getBatch(String batchId) {
+        return primary.getBatch(batchId);
+    }
+
+    private String call(LlmClient client, ProviderHealth health, String systemPrompt, String userPrompt) {
+        long start = System.nanoTime();
+        try {
+            String answer = client.completeOrThrow(systemPrompt, userPrompt);
+            health.recordSuccess();
+            if (client == primary) primaryLatencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return answer;
+        } catch (RuntimeException e) {
+            // a call cancelled because the other provider won is not a provider failure
+            if (!Thread.currentThread().isInterrupted()) health.recordFailure();
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private long hedgeDelayMs() {
+        long observed = primaryLatencies.percentile(settings.hedgePercentile(), settings.maxHedgeDelay().toMillis());
+        return Math.max(settings.minHedgeDelay().toMillis(), Math.min(settings.maxHedgeDelay().toMillis(), observed));
+    }
+
+    /**
+     * Consecutive-failure tracker: after {@code threshold} failures in a row the provider
+     * is skipped for {@code cooldown}, then gets one trial request.
+     */
+    private static class ProviderHealth {
+        private final String role;
+        private final int threshold;
+        private final Duration cooldown;
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile long unavailableUntil;
+
+        ProviderHealth(String role, int threshold, Duration cooldown) {
+            this.role = role;
+            this.threshold = threshold;
+            this.cooldown = cooldown;
+        }
+
+        boolean isAvailable() {
+            return System.currentTimeMillis() >= unavailableUntil;
+        }
+
+        void recordSuccess() {
+            consecutiveFailures.set(0);
+            unavailableUntil = 0;
+        }
+
+        void recordFailure() {
+            if (consecutiveFailures.incrementAndGet() >= threshold) {
+                unavailableUntil = System.currentTimeMillis() + cooldown.toMillis();
+                logger.warn("LLM {} provider marked unhealthy for {}s after {} consecutive failures",
+                        role, cooldown.toSeconds(), consecutiveFailures.get());
+            }
+        }
+    }
+
+    /**
+     * Fixed-size ring buffer of recent latencies in milliseconds.
+     */
+    private static class LatencyWindow {
+        private static final int MIN_SAMPLES = 20;
+        private final long[] samples;
+        private int next;
+        private int size;
+
+        LatencyWindow(int capacity) {
+            this.samples = new long[capacity];
+        }
+
+        synchronized void add(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % samples.length;
+            size = Math.min(size + 1, samples.length);
+        }
+
+        synchronized long percentile(double p, long fallback) {
+            if (size < MIN_SAMPLES) return fallback;
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(p * size) - 1;
+            return sorted[Math.max(0, Math.min(size - 1, index))];
+        }
+    }
+}
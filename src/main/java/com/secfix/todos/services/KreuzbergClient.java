@@ -4,13 +4,14 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.secfix.todos.exceptions.PermanentProcessingException;
+import com.secfix.todos.http.OutboundHttpClient;
+import com.secfix.todos.http.OutboundHttpClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
@@ -22,7 +23,7 @@ import java.util.UUID;
 public class KreuzbergClient {
     private static final Logger logger = LoggerFactory.getLogger(KreuzbergClient.class);
     private final String baseUrl;
-    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final OutboundHttpClient httpClient;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     public record TableData(String title, List<List<String>> rows) {}
@@ -34,8 +35,10 @@ public class KreuzbergClient {
             List<TableData> tables
     ) {}
 
-    public KreuzbergClient(@Value("${sectool.kreuzberg.base-url}") String baseUrl) {
+    public KreuzbergClient(@Value("${sectool.kreuzberg.base-url}") String baseUrl,
+                           OutboundHttpClients httpClients) {
         this.baseUrl = baseUrl;
+        this.httpClient = httpClients.forIntegration("kreuzberg", baseUrl);
     }
 
     public KreuzbergResult parse(byte[] fileBytes, String filename, String mimeType) {
@@ -43,16 +46,19 @@ public class KreuzbergClient {
             String boundary = UUID.randomUUID().toString();
             byte[] body = buildMultipartBody(boundary, fileBytes, filename, mimeType);
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(baseUrl + "/extract"))
+            HttpRequest request = httpClient.request(baseUrl + "/extract")
                     .header("Content-Type", "multipart/form-data; boundary=" + boundary)
                     .POST(HttpRequest.BodyPublishers.ofByteArray(body))
                     .build();
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = httpClient.send("extract", request);
 
             if (response.statusCode() != 200) {
                 logger.error("Kreuzberg parse failed: status={}, body={}", response.statusCode(), response.body());
+                if (isRejected(response.statusCode())) {
+                    // the document itself was rejected (unsupported or corrupt file); retrying will not help
+                    throw new PermanentProcessingException("Kreuzberg rejected the document with status " + response.statusCode());
+                }
                 throw new RuntimeException("Kreuzberg parse failed with status " + response.statusCode());
             }
 
@@ -65,12 +71,18 @@ public class KreuzbergClient {
             String html = buildRichHtml(text, tables, filename);
 
             return new KreuzbergResult(text, fullJson, html, tables);
+        } catch (PermanentProcessingException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Failed to call kreuzberg service", e);
             throw new RuntimeException("Kreuzberg parsing failed: " + e.getMessage(), e);
         }
     }
 
+    private static boolean isRejected(int status) {
+        return status >= 400 && status < 500 && status != 408 && status != 429;
+    }
+
     private List<TableData> extractTables(JsonNode result) {
         List<TableData> tables = new ArrayList<>();
         JsonNode tablesNode = result.get("tables");
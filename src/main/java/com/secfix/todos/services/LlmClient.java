@@ -1,5 +1,67 @@
 package com.secfix.todos.services;
 
+import com.secfix.todos.exceptions.LlmCallException;
+
+import java.util.List;
+import java.util.Map;
+
 public interface LlmClient {
-    String complete(String systemPrompt, String userPrompt);
+
+    /**
+     * One prompt of a batch job. {@code customId} comes back with the result and must be
+     * unique within the batch (we use the questionnaire item id).
+     */
+    record BatchPrompt(String customId, String systemPrompt, String userPrompt) {}
+
+    /**
+     * Provider-side state of a batch job. {@code answers} and {@code errors} are keyed by
+     * custom id and only populated once the batch has ended.
+     */
+    record BatchStatus(String batchId, boolean ended, Map<String, String> answers, Map<String, String> errors) {}
+
+    /**
+     * Returns the completion text. Provider failures are reported in-band as an
+     * "Error..." message so callers can show them instead of failing the request.
+     */
+    default String complete(String systemPrompt, String userPrompt) {
+        try {
+            return completeOrThrow(systemPrompt, userPrompt);
+        } catch (LlmCallException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Same as {@link #complete} but throws {@link LlmCallException} when the provider call fails,
+     * so composite clients can tell a failed call from a real answer.
+     */
+    String completeOrThrow(String systemPrompt, String userPrompt);
+
+    /**
+     * Loads the model ahead of real traffic for providers that unload idle models (Ollama).
+     * Best effort: failures are logged, never thrown.
+     */
+    default void warmUp() {
+    }
+
+    /**
+     * Whether the provider has an asynchronous batch endpoint (Anthropic Message Batches, OpenAI Batch).
+     */
+    default boolean supportsBatch() {
+        return false;
+    }
+
+    /**
+     * Submits all prompts as a single provider batch job and returns the provider's batch id.
+     */
+    default String submitBatch(List<BatchPrompt> prompts) {
+        throw new UnsupportedOperationException("LLM provider does not support batch processing");
+    }
+
+    /**
+     * Polls a batch job; once it has ended the per-prompt answers and errors are included.
+     */
+    default BatchStatus getBatch(String batchId) {
+        throw new UnsupportedOperationException("LLM provider does not support batch processing");
+    }
 }
@@ -1,22 +1,78 @@
 package com.secfix.todos.services;
 
+import com.secfix.todos.http.OutboundHttpClient;
+import com.secfix.todos.http.OutboundHttpClients;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+
 @Configuration
 public class LlmClientFactory {
 
+    @Value("${sectool.llm.secondary.provider:}")
+    private String secondaryProvider;
+
+    @Value("${sectool.llm.secondary.base-url:}")
+    private String secondaryBaseUrl;
+
+    @Value("${sectool.llm.secondary.api-key:}")
+    private String secondaryApiKey;
+
+    @Value("${sectool.llm.secondary.model:}")
+    private String secondaryModel;
+
+    @Value("${sectool.ollama.keep-alive:30m}")
+    private String ollamaKeepAlive;
+
+    @Value("${sectool.llm.hedge.enabled:true}")
+    private boolean hedgeEnabled;
+
+    @Value("${sectool.llm.hedge.percentile:0.95}")
+    private double hedgePercentile;
+
+    @Value("${sectool.llm.hedge.min-delay-ms:2000}")
+    private long hedgeMinDelayMs;
+
+    @Value("${sectool.llm.hedge.max-delay-ms:30000}")
+    private long hedgeMaxDelayMs;
+
+    @Value("${sectool.llm.failover.failure-threshold:3}")
+    private int failureThreshold;
+
+    @Value("${sectool.llm.failover.cooldown-ms:60000}")
+    private long cooldownMs;
+
     @Bean
     public LlmClient llmClient(
+            OutboundHttpClients httpClients,
+            MeterRegistry meterRegistry,
             @Value("${sectool.llm.provider}") String provider,
             @Value("${sectool.llm.base-url}") String baseUrl,
             @Value("${sectool.llm.api-key:}") String apiKey,
             @Value("${sectool.llm.model}") String model) {
+        LlmClient primary = createClient(httpClients.forIntegration("llm", baseUrl), provider, baseUrl, apiKey, model);
+        if (secondaryProvider.isBlank()) {
+            return primary;
+        }
+
+        LlmClient secondary = createClient(httpClients.forIntegration("llm-secondary", secondaryBaseUrl),
+                secondaryProvider, secondaryBaseUrl, secondaryApiKey, secondaryModel);
+        HedgingLlmClient.Settings settings = new HedgingLlmClient.Settings(
+                hedgeEnabled, hedgePercentile,
+                Duration.ofMillis(hedgeMinDelayMs), Duration.ofMillis(hedgeMaxDelayMs),
+                failureThreshold, Duration.ofMillis(cooldownMs));
+        return new HedgingLlmClient(primary, secondary, settings, meterRegistry);
+    }
+
+    private LlmClient createClient(OutboundHttpClient httpClient, String provider,
+                                   String baseUrl, String apiKey, String model) {
         return switch (provider.toLowerCase()) {
-            case "anthropic" -> new AnthropicLlmClient(baseUrl, apiKey, model);
-            case "openai" -> new OpenAiLlmClient(baseUrl, apiKey, model);
-            default -> new OllamaLlmClient(baseUrl, model);
+            case "anthropic" -> new AnthropicLlmClient(httpClient, baseUrl, apiKey, model);
+            case "openai" -> new OpenAiLlmClient(httpClient, baseUrl, apiKey, model);
+            default -> new OllamaLlmClient(httpClient, baseUrl, model, ollamaKeepAlive);
         };
     }
 }
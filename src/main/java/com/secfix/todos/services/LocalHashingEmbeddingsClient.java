@@ -0,0 +1,94 @@
+package com.secfix.todos.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic, network-free embeddings for load tests and CI ({@code sectool.embeddings.provider=local}).
+ *
+ * Each text is turned into word unigram/bigram and character trigram features. Every feature is
+ * mapped, through a seeded sparse random projection, onto a few signed coordinates of the output
+ * vector, which is then L2-normalized. Texts that share many n-grams end up close in cosine
+ * similarity, so retrieval behaves plausibly; the vectors carry no real semantics.
+ */
+public class LocalHashingEmbeddingsClient implements EmbeddingsClient {
+    private static final int PROJECTIONS_PER_FEATURE = 8;
+    private static final float WORD_WEIGHT = 1.0f;
+    private static final float BIGRAM_WEIGHT = 0.7f;
+    private static final float TRIGRAM_WEIGHT = 0.3f;
+
+    private final int dims;
+    private final long seed;
+
+    public LocalHashingEmbeddingsClient(int dimensions, long seed) {
+        this.dims = dimensions;
+        this.seed = seed;
+    }
+
+    @Override
+    public List<float[]> embed(List<String> texts) {
+        List<float[]> results = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            results.add(embedOne(text == null ? "" : text));
+        }
+        return results;
+    }
+
+    @Override
+    public int dimensions() { return dims; }
+
+    @Override
+    public String modelId() { return "local-hash-v1"; }
+
+    private float[] embedOne(String text) {
+        float[] vector = new float[dims];
+        String[] words = text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+        String previous = null;
+        for (String word : words) {
+            if (word.isEmpty()) continue;
+            addFeature(vector, "w:" + word, WORD_WEIGHT);
+            if (previous != null) {
+                addFeature(vector, "b:" + previous + " " + word, BIGRAM_WEIGHT);
+            }
+            String padded = " " + word + " ";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                addFeature(vector, "c:" + padded.substring(i, i + 3), TRIGRAM_WEIGHT);
+            }
+            previous = word;
+        }
+        normalize(vector);
+        return vector;
+    }
+
+    private void addFeature(float[] vector, String feature, float weight) {
+        SplittableRandom random = new SplittableRandom(seed ^ fnv1a64(feature));
+        for (int i = 0; i < PROJECTIONS_PER_FEATURE; i++) {
+            int index = random.nextInt(dims);
+            vector[index] += random.nextBoolean() ? weight : -weight;
+        }
+    }
+
+    private static void normalize(float[] vector) {
+        double sum = 0;
+        for (float v : vector) sum += v * v;
+        if (sum == 0) {
+            // empty text: return a fixed unit vector rather than a zero vector, which would be treated as a failure
+            vector[0] = 1f;
+            return;
+        }
+        float norm = (float) Math.sqrt(sum);
+        for (int i = 0; i < vector.length; i++) vector[i] /= norm;
+    }
+
+    private static long fnv1a64(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,72 @@
+package com.secfix.todos.services;
+
+import com.secfix.todos.database.repositories.DocumentProcessingJobRepository;
+import com.secfix.todos.enums.ProcessingJobStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Keeps self-hosted models (Ollama) loaded so user-facing calls don't pay the model load time.
+ *
+ * Both models are warmed at startup. Bulk answering jobs warm the embeddings model only, and it is
+ * also pinged periodically while the document processing queue has work, so it is not unloaded
+ * between EMBED jobs; keep-warm never pings the LLM, which stays loaded for Ollama's
+ * {@code keep-alive} after each use. Hosted providers implement {@code warmUp()} as a no-op.
+ */
+@Service
+public class ModelWarmUpService {
+    private static final Logger logger = LoggerFactory.getLogger(ModelWarmUpService.class);
+    private static final List<ProcessingJobStatus> ACTIVE_STATUSES = List.of(ProcessingJobStatus.PENDING, ProcessingJobStatus.RUNNING);
+
+    private final LlmClient llmClient;
+    private final EmbeddingsClient embeddingsClient;
+    private final DocumentProcessingJobRepository jobRepo;
+
+    @Value("${sectool.ollama.warm-up-on-startup:true}")
+    private boolean warmUpOnStartup;
+
+    public ModelWarmUpService(LlmClient llmClient, EmbeddingsClient embeddingsClient,
+                              DocumentProcessingJobRepository jobRepo) {
+        this.llmClient = llmClient;
+        this.embeddingsClient = embeddingsClient;
+        this.jobRepo = jobRepo;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpOnStartup() {
+        if (!warmUpOnStartup) return;
+        Thread.ofVirtual().name("model-warm-up").start(() -> {
+            embeddingsClient.warmUp();
+            llmClient.warmUp();
+        });
+    }
+
+    /**
+     * Bulk answering embeds every question locally before submitting the prompts to the provider's
+     * batch API. Only hosted LLMs offer one (bulk jobs are rejected for Ollama), so the LLM never
+     * needs warming here.
+     */
+    public void warmUpForBulkJob() {
+        embeddingsClient.warmUp();
+    }
+
+    @Scheduled(fixedDelayString = "${sectool.ollama.keep-warm-interval-ms:240000}",
+            initialDelayString = "${sectool.ollama.keep-warm-interval-ms:240000}")
+    public void keepWarmWhileQueueBusy() {
+        try {
+            if (jobRepo.countByStatusIn(ACTIVE_STATUSES) > 0) {
+                logger.debug("Processing queue busy, pinging embeddings model");
+                embeddingsClient.warmUp();
+            }
+        } catch (Exception e) {
+            logger.warn("Keep-warm check failed: {}", e.getMessage());
+        }
+    }
+}
@@ -1,65 +1,160 @@
 package com.secfix.todos.services;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.secfix.todos.http.JsonResponseReader;
+import com.secfix.todos.http.OutboundHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URI;
-import java.net.http.HttpClient;
+import java.io.IOException;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 public class OllamaEmbeddingsClient implements EmbeddingsClient {
     private static final Logger logger = LoggerFactory.getLogger(OllamaEmbeddingsClient.class);
+    private static final int MAX_BATCH_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MS = 1_000;
     private final String baseUrl;
     private final String model;
     private final int dims;
-    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final String keepAlive;
+    private final int batchSize;
+    private final OutboundHttpClient httpClient;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public OllamaEmbeddingsClient(String baseUrl, String model, int dimensions) {
+    public OllamaEmbeddingsClient(OutboundHttpClient httpClient, String baseUrl, String model, int dimensions,
+                                  String keepAlive, int batchSize) {
+        this.httpClient = httpClient;
         this.baseUrl = baseUrl;
         this.model = model;
         this.dims = dimensions;
+        this.keepAlive = keepAlive;
+        this.batchSize = Math.max(1, batchSize);
     }
 
+    /**
+     * Embeds the texts through the multi-input {@code /api/embed} endpoint, {@code batchSize} texts
+     * per request. A batch that keeps failing is retried item by item so one bad chunk only zeroes
+     * its own vector, not the whole document.
+     */
     @Override
     public List<float[]> embed(List<String> texts) {
-        List<float[]> results = new ArrayList<>();
-        for (String text : texts) {
+        List<float[]> results = new ArrayList<>(texts.size());
+        for (int from = 0; from < texts.size(); from += batchSize) {
+            List<String> batch = texts.subList(from, Math.min(texts.size(), from + batchSize));
+            results.addAll(embedWithRetry(batch));
+            if (Thread.currentThread().isInterrupted()) {
+                results.addAll(zeroVectors(texts.size() - results.size()));
+                break;
+            }
+        }
+        return results;
+    }
+
+    private List<float[]> embedWithRetry(List<String> batch) {
+        for (int attempt = 1; attempt <= MAX_BATCH_ATTEMPTS; attempt++) {
             try {
-                String body = objectMapper.writeValueAsString(Map.of("model", model, "prompt", text));
-                HttpRequest request = HttpRequest.newBuilder()
-                        .uri(URI.create(baseUrl + "/api/embeddings"))
-                        .header("Content-Type", "application/json")
-                        .POST(HttpRequest.BodyPublishers.ofString(body))
-                        .build();
-                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-                JsonNode json = objectMapper.readTree(response.body());
-                JsonNode embeddingNode = json.get("embedding");
-                if (embeddingNode == null || !embeddingNode.isArray()) {
-                    logger.warn("Ollama returned no embedding (service may not be running). Response: {}",
-                            response.body().length() > 200 ? response.body().substring(0, 200) : response.body());
-                    results.add(new float[dims]);
-                } else {
-                    float[] embedding = new float[embeddingNode.size()];
-                    for (int i = 0; i < embeddingNode.size(); i++) {
-                        embedding[i] = (float) embeddingNode.get(i).asDouble();
-                    }
-                    results.add(embedding);
+                return embedBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return zeroVectors(batch.size());
+            } catch (Exception e) {
+                logger.warn("Ollama embed batch of {} failed (attempt {}/{}): {}",
+                        batch.size(), attempt, MAX_BATCH_ATTEMPTS, e.getMessage());
+                if (attempt < MAX_BATCH_ATTEMPTS && !sleepQuietly(RETRY_BACKOFF_MS * attempt)) {
+                    return zeroVectors(batch.size());
                 }
+            }
+        }
+        if (batch.size() == 1) {
+            logger.error("Ollama embedding failed for text chunk, storing zero vector");
+            return zeroVectors(1);
+        }
+
+        logger.warn("Falling back to per-item embedding for batch of {}", batch.size());
+        List<float[]> results = new ArrayList<>(batch.size());
+        for (String text : batch) {
+            try {
+                results.add(embedBatch(List.of(text)).getFirst());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.addAll(zeroVectors(batch.size() - results.size()));
+                break;
             } catch (Exception e) {
-                logger.error("Ollama embedding failed for text chunk", e);
+                logger.error("Ollama embedding failed for text chunk, storing zero vector: {}", e.getMessage());
                 results.add(new float[dims]);
             }
         }
         return results;
     }
 
+    private List<float[]> embedBatch(List<String> batch) throws IOException, InterruptedException {
+        String body = objectMapper.writeValueAsString(Map.of("model", model, "input", batch, "keep_alive", keepAlive));
+        HttpRequest request = httpClient.request(baseUrl + "/api/embed")
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        try (OutboundHttpClient.StreamResponse response = httpClient.sendForStream("embed", request)) {
+            if (response.statusCode() != 200) {
+                throw new IOException("Ollama returned status " + response.statusCode() + ": " + response.snippet(200));
+            }
+            List<float[]> embeddings = JsonResponseReader.readEmbeddingList(response.body(), "embeddings", dims);
+            if (embeddings.size() != batch.size() || embeddings.contains(null)) {
+                throw new IOException("Ollama returned " + embeddings.size() + " embeddings for " + batch.size() + " inputs");
+            }
+            return embeddings;
+        }
+    }
+
+    private List<float[]> zeroVectors(int count) {
+        List<float[]> fallback = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) fallback.add(new float[dims]);
+        return fallback;
+    }
+
+    private static boolean sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     @Override
     public int dimensions() { return dims; }
+
+    @Override
+    public String modelId() { return model; }
+
+    /**
+     * An empty input makes Ollama load the model without computing an embedding. Uses the same
+     * {@code /api/embed} endpoint as {@link #embed}, since the legacy {@code /api/embeddings} one
+     * may be served by a different code path and is deprecated.
+     */
+    @Override
+    public void warmUp() {
+        long start = System.currentTimeMillis();
+        try {
+            String body = objectMapper.writeValueAsString(Map.of("model", model, "input", List.of(), "keep_alive", keepAlive));
+            HttpRequest request = httpClient.request(baseUrl + "/api/embed")
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+            try (OutboundHttpClient.StreamResponse response = httpClient.sendForStream("embeddings/warm-up", request)) {
+                if (response.statusCode() != 200) {
+                    logger.warn("Ollama warm-up for {} returned status {}: {}", model, response.statusCode(), response.snippet(200));
+                    return;
+                }
+            }
+            logger.info("Ollama embedding model {} warm (took {}ms)", model, System.currentTimeMillis() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("Ollama warm-up for {} failed: {}", model, e.getMessage());
+        }
+    }
 }
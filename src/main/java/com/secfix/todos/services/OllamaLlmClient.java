@@ -1,14 +1,13 @@
 package com.secfix.todos.services;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.secfix.todos.exceptions.LlmCallException;
+import com.secfix.todos.http.JsonResponseReader;
+import com.secfix.todos.http.OutboundHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.util.List;
 import java.util.Map;
 
@@ -16,33 +15,73 @@ public class OllamaLlmClient implements LlmClient {
     private static final Logger logger = LoggerFactory.getLogger(OllamaLlmClient.class);
     private final String baseUrl;
     private final String model;
-    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final String keepAlive;
+    private final OutboundHttpClient httpClient;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public OllamaLlmClient(String baseUrl, String model) {
+    /**
+     * @param keepAlive how long Ollama keeps the model loaded after a request (e.g. {@code "30m"}, {@code "-1"} for forever)
+     */
+    public OllamaLlmClient(OutboundHttpClient httpClient, String baseUrl, String model, String keepAlive) {
+        this.httpClient = httpClient;
         this.baseUrl = baseUrl;
         this.model = model;
+        this.keepAlive = keepAlive;
     }
 
     @Override
-    public String complete(String systemPrompt, String userPrompt) {
+    public String completeOrThrow(String systemPrompt, String userPrompt) {
         try {
             var messages = List.of(
                 Map.of("role", "system", "content", systemPrompt),
                 Map.of("role", "user", "content", userPrompt)
             );
-            String body = objectMapper.writeValueAsString(Map.of("model", model, "messages", messages, "stream", false));
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(baseUrl + "/api/chat"))
+            String body = objectMapper.writeValueAsString(Map.of("model", model, "messages", messages, "stream", false, "keep_alive", keepAlive));
+            HttpRequest request = httpClient.request(baseUrl + "/api/chat")
                     .header("Content-Type", "application/json")
                     .POST(HttpRequest.BodyPublishers.ofString(body))
                     .build();
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            JsonNode json = objectMapper.readTree(response.body());
-            return json.path("message").path("content").asText("");
+            try (OutboundHttpClient.StreamResponse response = httpClient.sendForStream("chat", request)) {
+                if (response.statusCode() != 200) {
+                    logger.error("Ollama returned status {}: {}", response.statusCode(), response.snippet(500));
+                    throw new LlmCallException("Error: Ollama returned status " + response.statusCode());
+                }
+                return JsonResponseReader.readText(response.body(), "message", "content");
+            }
+        } catch (LlmCallException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LlmCallException("Error generating response: request cancelled", e);
         } catch (Exception e) {
             logger.error("Ollama LLM call failed", e);
-            return "Error generating response: " + e.getMessage();
+            throw new LlmCallException("Error generating response: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * A chat request without messages makes Ollama load the model and return immediately.
+     */
+    @Override
+    public void warmUp() {
+        long start = System.currentTimeMillis();
+        try {
+            String body = objectMapper.writeValueAsString(Map.of("model", model, "messages", List.of(), "keep_alive", keepAlive));
+            HttpRequest request = httpClient.request(baseUrl + "/api/chat")
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+            try (OutboundHttpClient.StreamResponse response = httpClient.sendForStream("chat/warm-up", request)) {
+                if (response.statusCode() != 200) {
+                    logger.warn("Ollama warm-up for {} returned status {}: {}", model, response.statusCode(), response.snippet(200));
+                    return;
+                }
+            }
+            logger.info("Ollama model {} warm (took {}ms)", model, System.currentTimeMillis() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("Ollama warm-up for {} failed: {}", model, e.getMessage());
         }
     }
 }
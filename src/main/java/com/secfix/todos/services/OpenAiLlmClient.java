@@ -1,51 +1,219 @@
 package com.secfix.todos.services;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.secfix.todos.exceptions.LlmCallException;
+import com.secfix.todos.http.JsonResponseReader;
+import com.secfix.todos.http.OutboundHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 public class OpenAiLlmClient implements LlmClient {
     private static final Logger logger = LoggerFactory.getLogger(OpenAiLlmClient.class);
+    private static final Set<String> TERMINAL_BATCH_STATES = Set.of("completed", "failed", "expired", "cancelled");
     private final String baseUrl;
     private final String apiKey;
     private final String model;
-    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final OutboundHttpClient httpClient;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public OpenAiLlmClient(String baseUrl, String apiKey, String model) {
+    public OpenAiLlmClient(OutboundHttpClient httpClient, String baseUrl, String apiKey, String model) {
+        this.httpClient = httpClient;
         this.baseUrl = baseUrl;
         this.apiKey = apiKey;
         this.model = model;
     }
 
     @Override
-    public String complete(String systemPrompt, String userPrompt) {
+    public String completeOrThrow(String systemPrompt, String userPrompt) {
         try {
             var messages = List.of(
                 Map.of("role", "system", "content", systemPrompt),
                 Map.of("role", "user", "content", userPrompt)
             );
             String body = objectMapper.writeValueAsString(Map.of("model", model, "messages", messages));
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(baseUrl + "/v1/chat/completions"))
+            HttpRequest request = httpClient.request(baseUrl + "/v1/chat/completions")
                     .header("Content-Type", "application/json")
                     .header("Authorization", "Bearer " + apiKey)
                     .POST(HttpRequest.BodyPublishers.ofString(body))
                     .build();
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            JsonNode json = objectMapper.readTree(response.body());
-            return json.path("choices").get(0).path("message").path("content").asText("");
+            try (OutboundHttpClient.StreamResponse response = httpClient.sendForStream("chat/completions", request)) {
+                if (response.statusCode() != 200) {
+                    logger.error("OpenAI API returned status {}: {}", response.statusCode(), response.snippet(500));
+                    throw new LlmCallException("Error: OpenAI API returned status " + response.statusCode());
+                }
+                return JsonResponseReader.readText(response.body(), "choices", 0, "message", "content");
+            }
+        } catch (LlmCallException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LlmCallException("Error generating response: request cancelled", e);
         } catch (Exception e) {
             logger.error("OpenAI LLM call failed", e);
-            return "Error generating response: " + e.getMessage();
+            throw new LlmCallException("Error generating response: " + e.getMessage(), e);
         }
     }
+
+    @Override
+    public boolean supportsBatch() {
+        return true;
+    }
+
+    @Override
+    public String submitBatch(List<BatchPrompt> prompts) {
+        try {
+            StringBuilder jsonl = new StringBuilder();
+            for (BatchPrompt p : prompts) {
+                var messages = List.of(
+                    Map.of("role", "system", "content", p.systemPrompt()),
+                    Map.of("role", "user", "content", p.userPrompt())
+                );
+                jsonl.append(objectMapper.writeValueAsString(Map.of(
+                        "custom_id", p.customId(),
+                        "method", "POST",
+                        "url", "/v1/chat/completions",
+                        "body", Map.of("model", model, "messages", messages)
+                ))).append("\n");
+            }
+
+            String boundary = UUID.randomUUID().toString();
+            HttpRequest upload = httpClient.request(baseUrl + "/v1/files")
+                    .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                    .header("Authorization", "Bearer " + apiKey)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(
+                            buildBatchFileUpload(boundary, jsonl.toString().getBytes(StandardCharsets.UTF_8))))
+                    .build();
+            HttpResponse<String> uploadResponse = httpClient.send("files", upload);
+            if (uploadResponse.statusCode() != 200) {
+                logger.error("OpenAI batch file upload returned status {}: {}", uploadResponse.statusCode(),
+                        uploadResponse.body().length() > 500 ? uploadResponse.body().substring(0, 500) : uploadResponse.body());
+                throw new LlmCallException("Error: OpenAI files API returned status " + uploadResponse.statusCode());
+            }
+            String inputFileId = objectMapper.readTree(uploadResponse.body()).path("id").asText();
+
+            String body = objectMapper.writeValueAsString(Map.of(
+                    "input_file_id", inputFileId,
+                    "endpoint", "/v1/chat/completions",
+                    "completion_window", "24h"));
+            HttpRequest create = httpClient.request(baseUrl + "/v1/batches")
+                    .header("Content-Type", "application/json")
+                    .header("Authorization", "Bearer " + apiKey)
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+            HttpResponse<String> response = httpClient.send("batches", create);
+            if (response.statusCode() != 200) {
+                logger.error("OpenAI batch create returned status {}: {}", response.statusCode(),
+                        response.body().length() > 500 ? response.body().substring(0, 500) : response.body());
+                throw new LlmCallException("Error: OpenAI batch API returned status " + response.statusCode());
+            }
+            String batchId = objectMapper.readTree(response.body()).path("id").asText();
+            logger.info("Submitted OpenAI batch {} with {} requests", batchId, prompts.size());
+            return batchId;
+        } catch (LlmCallException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LlmCallException("Error submitting batch: request cancelled", e);
+        } catch (Exception e) {
+            logger.error("OpenAI batch submit failed", e);
+            throw new LlmCallException("Error submitting batch: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public BatchStatus getBatch(String batchId) {
+        try {
+            HttpRequest request = httpClient.request(baseUrl + "/v1/batches/" + batchId)
+                    .header("Authorization", "Bearer " + apiKey)
+                    .GET()
+                    .build();
+            HttpResponse<String> response = httpClient.send("batches", request);
+            if (response.statusCode() != 200) {
+                throw new LlmCallException("Error: OpenAI batch API returned status " + response.statusCode());
+            }
+            JsonNode batch = objectMapper.readTree(response.body());
+            String status = batch.path("status").asText();
+            if (!TERMINAL_BATCH_STATES.contains(status)) {
+                return new BatchStatus(batchId, false, Map.of(), Map.of());
+            }
+
+            Map<String, String> answers = new HashMap<>();
+            Map<String, String> errors = new HashMap<>();
+            for (String fileField : List.of("output_file_id", "error_file_id")) {
+                String fileId = batch.path(fileField).asText(null);
+                if (fileId == null || fileId.isBlank()) continue;
+                readResultFile(fileId, answers, errors);
+            }
+            if (!"completed".equals(status) && answers.isEmpty() && errors.isEmpty()) {
+                logger.warn("OpenAI batch {} ended with status {} and no results", batchId, status);
+            }
+            return new BatchStatus(batchId, true, answers, errors);
+        } catch (LlmCallException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LlmCallException("Error polling batch: request cancelled", e);
+        } catch (Exception e) {
+            logger.error("OpenAI batch poll failed for {}", batchId, e);
+            throw new LlmCallException("Error polling batch: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Streams a batch output or error file (JSON Lines) into {@code answers} and {@code errors}.
+     */
+    private void readResultFile(String fileId, Map<String, String> answers, Map<String, String> errors) throws Exception {
+        HttpRequest request = httpClient.request(baseUrl + "/v1/files/" + fileId + "/content")
+                .header("Authorization", "Bearer " + apiKey)
+                .GET()
+                .build();
+        try (OutboundHttpClient.StreamResponse response = httpClient.sendForStream("files/content", request)) {
+            if (response.statusCode() != 200) {
+                throw new LlmCallException("Error: OpenAI files API returned status " + response.statusCode());
+            }
+            MappingIterator<JsonNode> entries = JsonResponseReader.readJsonLines(response.body());
+            while (entries.hasNextValue()) {
+                JsonNode entry = entries.nextValue();
+                String customId = entry.path("custom_id").asText();
+                JsonNode resp = entry.path("response");
+                if (resp.path("status_code").asInt() == 200) {
+                    answers.put(customId, resp.path("body").path("choices").path(0)
+                            .path("message").path("content").asText(""));
+                } else {
+                    String message = entry.path("error").path("message").asText(
+                            resp.path("body").path("error").path("message").asText("status " + resp.path("status_code").asInt()));
+                    errors.put(customId, message);
+                }
+            }
+        }
+    }
+
+    private byte[] buildBatchFileUpload(String boundary, byte[] jsonl) {
+        String header = "--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"purpose\"\r\n\r\n" +
+                "batch\r\n" +
+                "--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"batch.jsonl\"\r\n" +
+                "Content-Type: application/jsonl\r\n\r\n";
+        String footer = "\r\n--" + boundary + "--\r\n";
+
+        byte[] headerBytes = header.getBytes(StandardCharsets.UTF_8);
+        byte[] footerBytes = footer.getBytes(StandardCharsets.UTF_8);
+        byte[] body = new byte[headerBytes.length + jsonl.length + footerBytes.length];
+        System.arraycopy(headerBytes, 0, body, 0, headerBytes.length);
+        System.arraycopy(jsonl, 0, body, headerBytes.length, jsonl.length);
+        System.arraycopy(footerBytes, 0, body, headerBytes.length + jsonl.length, footerBytes.length);
+        return body;
+    }
 }
@@ -42,8 +42,20 @@ public class QuestionnaireExtractionService {
 
     public record ExtractionResult(UUID questionnaireId, int itemsCreated, String sheetName) {}
 
+    /**
+     * Creates the questionnaire of a document version, unless the version already has one (the
+     * EXTRACT_QUESTIONS stage ran before, e.g. on a worker that lost its lease); returns null when
+     * nothing was extracted.
+     */
     public ExtractionResult extract(UUID tenantId, UUID documentVersionId,
                                      String documentTitle, String parsedJson) {
+        Optional<Questionnaire> existing = questionnaireRepo.findFirstByTenantIdAndSourceDocumentVersionId(
+                tenantId, documentVersionId);
+        if (existing.isPresent()) {
+            logger.info("Version {} already has questionnaire {}, skipping extraction",
+                    documentVersionId, existing.get().getId());
+            return null;
+        }
         try {
             JsonNode root = objectMapper.readTree(parsedJson);
             JsonNode tablesNode = root.get("tables");
@@ -7,6 +7,7 @@ import com.secfix.todos.exceptions.ApiServiceCallException;
 import com.secfix.todos.tenancy.TenantContext;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.time.LocalDate;
@@ -92,7 +93,36 @@ public class QuestionnairesService {
                 .orElseThrow(() -> new ApiServiceCallException("Item not found", HttpStatus.NOT_FOUND));
 
         RagService.SuggestionResult result = ragService.suggest(item.getQuestionText(), tenantId);
+        AnswerSuggestion suggestion = recordSuggestion(tenantId, item, result);
+        updateProgress(tenantId, questionnaireId);
+        return suggestion;
+    }
+
+    /**
+     * Stores a suggestion for the item and marks it SUGGESTED, whatever its current state.
+     */
+    public AnswerSuggestion recordSuggestion(UUID tenantId, QuestionnaireItem item, RagService.SuggestionResult result) {
+        AnswerSuggestion suggestion = saveSuggestion(tenantId, item.getId(), result);
+        item.setCurrentState(QuestionnaireItemState.SUGGESTED);
+        itemRepo.save(item);
+        return suggestion;
+    }
+
+    /**
+     * Stores a suggestion for an item that is still UNANSWERED and marks it SUGGESTED; returns false,
+     * storing nothing, if the item was drafted or approved meanwhile. Used by background answering,
+     * which must not override an answer a user gave while it ran.
+     */
+    @Transactional
+    public boolean recordSuggestionIfUnanswered(UUID tenantId, UUID itemId, RagService.SuggestionResult result) {
+        if (itemRepo.markSuggestedIfUnanswered(tenantId, itemId) == 0) {
+            return false;
+        }
+        saveSuggestion(tenantId, itemId, result);
+        return true;
+    }
 
+    private AnswerSuggestion saveSuggestion(UUID tenantId, UUID itemId, RagService.SuggestionResult result) {
         AnswerSuggestion suggestion = new AnswerSuggestion();
         suggestion.setTenantId(tenantId);
         suggestion.setQuestionnaireItemId(itemId);
@@ -107,13 +137,7 @@ public class QuestionnairesService {
         }
         suggestion.setConfidence(result.confidence());
         suggestion.setCoverageStatus(result.coverageStatus());
-        suggestion = suggestionRepo.save(suggestion);
-
-        item.setCurrentState(QuestionnaireItemState.SUGGESTED);
-        itemRepo.save(item);
-
-        updateProgress(questionnaireId);
-        return suggestion;
+        return suggestionRepo.save(suggestion);
     }
 
     public QuestionnaireResponse saveResponse(UUID questionnaireId, UUID itemId,
@@ -245,7 +269,10 @@ public class QuestionnairesService {
     }
 
     private void updateProgress(UUID questionnaireId) {
-        UUID tenantId = TenantContext.getTenantId();
+        updateProgress(TenantContext.getTenantId(), questionnaireId);
+    }
+
+    public void updateProgress(UUID tenantId, UUID questionnaireId) {
         List<QuestionnaireItem> items = itemRepo.findByTenantIdAndQuestionnaireIdOrderByItemIndex(tenantId, questionnaireId);
         if (items.isEmpty()) return;
         long answered = items.stream().filter(i ->
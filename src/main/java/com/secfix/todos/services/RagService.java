@@ -1,11 +1,10 @@
 package com.secfix.todos.services;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.secfix.todos.database.models.*;
 import com.secfix.todos.database.repositories.*;
 import com.secfix.todos.enums.CoverageStatus;
-import com.secfix.todos.enums.DocumentType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -18,15 +17,30 @@ public class RagService {
     private static final Logger logger = LoggerFactory.getLogger(RagService.class);
     private static final int TOP_K = 5;
     private static final double MIN_SIMILARITY_THRESHOLD = 0.1;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String SYSTEM_PROMPT = """
+            You are a security questionnaire answering assistant. Answer based on the provided context.
+
+            Rules:
+            1. If the context contains ANY relevant evidence, provide an answer using that evidence.
+               Start with Yes/No/Partial, then explain what the organization does and cite the sources.
+            2. Only say "INSUFFICIENT_EVIDENCE" if the context contains absolutely nothing relevant to the question.
+            3. If the context partially covers the question, answer "Partial" or "Yes" based on what IS covered,
+               then clearly note which specific aspects are not addressed in the available documentation.
+            4. Always cite chunk IDs as sources.
+            5. Be concise. Write a direct answer suitable for a questionnaire response.
+            """;
 
     private final KbChunkRepository chunkRepo;
     private final KbEmbeddingRepository embeddingRepo;
     private final AnswerLibraryEntryRepository answerLibraryRepo;
     private final DocumentVersionRepository documentVersionRepo;
     private final DocumentRepository documentRepo;
-    private final EmbeddingsClient embeddingsClient;
+    private final TenantRepository tenantRepo;
+    private final EmbeddingModelRegistry embeddingModels;
+    private final DocumentProcessingProfile processingProfile;
     private final LlmClient llmClient;
+    private final SingleFlight<SuggestKey, SuggestionResult> inFlightSuggestions = new SingleFlight<>();
+    private final Counter coalescedSuggestions;
 
     public record SuggestionResult(String answerText, List<String> citations, double confidence, CoverageStatus coverageStatus) {}
 
@@ -34,33 +48,76 @@ public class RagService {
                       AnswerLibraryEntryRepository answerLibraryRepo,
                       DocumentVersionRepository documentVersionRepo,
                       DocumentRepository documentRepo,
-                      EmbeddingsClient embeddingsClient, LlmClient llmClient) {
+                      TenantRepository tenantRepo,
+                      EmbeddingModelRegistry embeddingModels, DocumentProcessingProfile processingProfile,
+                      LlmClient llmClient, MeterRegistry meterRegistry) {
         this.chunkRepo = chunkRepo;
         this.embeddingRepo = embeddingRepo;
         this.answerLibraryRepo = answerLibraryRepo;
         this.documentVersionRepo = documentVersionRepo;
         this.documentRepo = documentRepo;
-        this.embeddingsClient = embeddingsClient;
+        this.tenantRepo = tenantRepo;
+        this.embeddingModels = embeddingModels;
+        this.processingProfile = processingProfile;
         this.llmClient = llmClient;
+        this.coalescedSuggestions = Counter.builder("sectool.rag.suggest.coalesced")
+                .description("Suggest calls that shared an identical in-flight computation")
+                .register(meterRegistry);
     }
 
+    /**
+     * Retrieval output for one question: either a final result that needs no LLM call
+     * (answer library hit, no evidence) or the prompts plus the evidence needed to score the answer.
+     */
+    public record PreparedSuggestion(SuggestionResult immediateResult, String systemPrompt, String userPrompt,
+                                     List<String> citations, double topScore) {}
+
+    /**
+     * Identity of a suggest call. The knowledge-base fingerprint (embedding and answer-library row
+     * counts) keeps a request issued after a document finished processing from attaching to a
+     * computation that started against the older knowledge base.
+     */
+    private record SuggestKey(UUID tenantId, String normalizedQuestion, long embeddingCount, long libraryCount) {}
+
+    /**
+     * Concurrent identical calls (same tenant, question and knowledge-base state) are coalesced
+     * so that only one of them pays for the embedding and LLM calls.
+     */
     public SuggestionResult suggest(String questionText, UUID tenantId) {
+        SuggestKey key = new SuggestKey(tenantId, normalizeQuestion(questionText),
+                embeddingRepo.countByTenantId(tenantId), answerLibraryRepo.countByTenantId(tenantId));
+        return inFlightSuggestions.execute(key, () -> computeSuggestion(questionText, tenantId),
+                coalescedSuggestions::increment);
+    }
+
+    private SuggestionResult computeSuggestion(String questionText, UUID tenantId) {
+        PreparedSuggestion prepared = prepare(questionText, tenantId);
+        if (prepared.immediateResult() != null) {
+            return prepared.immediateResult();
+        }
+        String answer = llmClient.complete(prepared.systemPrompt(), prepared.userPrompt());
+        return toSuggestionResult(answer, prepared.citations(), prepared.topScore());
+    }
+
+    public PreparedSuggestion prepare(String questionText, UUID tenantId) {
         List<AnswerLibraryEntry> libraryEntries = answerLibraryRepo.findByTenantId(tenantId);
         for (AnswerLibraryEntry entry : libraryEntries) {
             if (entry.getQuestionNormalized() != null &&
                 entry.getQuestionNormalized().equalsIgnoreCase(questionText.trim())) {
-                return new SuggestionResult(entry.getAnswerText(),
-                        List.of("answer_library:" + entry.getId()), 0.95, CoverageStatus.OK);
+                return immediate(new SuggestionResult(entry.getAnswerText(),
+                        List.of("answer_library:" + entry.getId()), 0.95, CoverageStatus.OK));
             }
         }
 
-        float[] queryVector = embedQuery(questionText);
-        List<ScoredChunk> rankedChunks = retrieveChunks(tenantId, queryVector);
+        String activeModel = tenantRepo.findById(tenantId).map(Tenant::getActiveEmbeddingModel).orElse(null);
+        EmbeddingsClient queryModel = embeddingModels.serving(activeModel);
+        float[] queryVector = embedQuery(questionText, queryModel);
+        List<ScoredChunk> rankedChunks = retrieveChunks(tenantId, activeModel, queryModel.modelId(), queryVector);
 
         if (rankedChunks.isEmpty()) {
-            return new SuggestionResult(
+            return immediate(new SuggestionResult(
                     "I don't have enough information in the knowledge base to answer this question. Please upload relevant policies or documents.",
-                    List.of(), 0.0, CoverageStatus.INSUFFICIENT_EVIDENCE);
+                    List.of(), 0.0, CoverageStatus.INSUFFICIENT_EVIDENCE));
         }
 
         StringBuilder context = new StringBuilder();
@@ -76,23 +133,11 @@ public class RagService {
                     sc.chunk.getText().substring(0, Math.min(80, sc.chunk.getText().length())));
         }
 
-        String systemPrompt = """
-            You are a security questionnaire answering assistant. Answer based on the provided context.
-
-            Rules:
-            1. If the context contains ANY relevant evidence, provide an answer using that evidence.
-               Start with Yes/No/Partial, then explain what the organization does and cite the sources.
-            2. Only say "INSUFFICIENT_EVIDENCE" if the context contains absolutely nothing relevant to the question.
-            3. If the context partially covers the question, answer "Partial" or "Yes" based on what IS covered,
-               then clearly note which specific aspects are not addressed in the available documentation.
-            4. Always cite chunk IDs as sources.
-            5. Be concise. Write a direct answer suitable for a questionnaire response.
-            """;
-
         String userPrompt = "Context:\n" + context + "\n\nQuestion: " + questionText;
+        return new PreparedSuggestion(null, SYSTEM_PROMPT, userPrompt, citations, topScore);
+    }
 
-        String answer = llmClient.complete(systemPrompt, userPrompt);
-
+    public SuggestionResult toSuggestionResult(String answer, List<String> citations, double topScore) {
         String answerLower = answer.toLowerCase().trim();
         boolean noEvidence = answerLower.startsWith("insufficient_evidence")
                 || (answerLower.contains("insufficient_evidence") && !answerLower.contains("yes") && !answerLower.contains("partial"));
@@ -102,16 +147,27 @@ public class RagService {
         return new SuggestionResult(answer, citations, confidence, coverage);
     }
 
-    private float[] embedQuery(String text) {
-        List<float[]> result = embeddingsClient.embed(List.of(text));
+    private static String normalizeQuestion(String questionText) {
+        return questionText.trim().replaceAll("\\s+", " ").toLowerCase();
+    }
+
+    private PreparedSuggestion immediate(SuggestionResult result) {
+        return new PreparedSuggestion(result, null, null, result.citations(), 0.0);
+    }
+
+    private float[] embedQuery(String text, EmbeddingsClient client) {
+        List<float[]> result = client.embed(List.of(text));
         if (result.isEmpty()) return new float[0];
         return result.getFirst();
     }
 
     private record ScoredChunk(KbChunk chunk, double score) {}
 
-    private List<ScoredChunk> retrieveChunks(UUID tenantId, float[] queryVector) {
-        List<KbEmbedding> embeddings = embeddingRepo.findByTenantId(tenantId);
+    private List<ScoredChunk> retrieveChunks(UUID tenantId, String activeModel, String queryModelId, float[] queryVector) {
+        // exactly one model is searched: vectors of any other model are not comparable with the query
+        List<String> models = activeModel != null ? List.of(activeModel)
+                : List.of(EmbeddingModelRegistry.LEGACY_MODEL, embeddingModels.legacy().modelId());
+        List<KbEmbedding> embeddings = embeddingRepo.findByTenantIdAndEmbeddingModelIn(tenantId, models);
         if (embeddings.isEmpty()) {
             logger.warn("No embeddings found for tenant {}", tenantId);
             return List.of();
@@ -121,13 +177,14 @@ public class RagService {
         logger.info("Retrieval: {} policy document versions as knowledge sources", policyVersionIds.size());
 
         Map<UUID, KbChunk> chunkMap = new HashMap<>();
-        List<ScoredChunk> scored = new ArrayList<>();
+        Map<UUID, ScoredChunk> bestByChunk = new HashMap<>();
 
         for (KbEmbedding emb : embeddings) {
-            float[] storedVector = parseEmbedding(emb.getEmbedding());
-            if (storedVector.length == 0 || isZeroVector(storedVector)) continue;
+            if (!comparable(queryModelId, emb.getEmbeddingModel())) continue;
+            float[] storedVector = EmbeddingCodec.parse(emb.getEmbedding());
+            if (storedVector.length == 0 || EmbeddingCodec.isZero(storedVector)) continue;
 
-            double similarity = (queryVector.length > 0 && queryVector.length == storedVector.length)
+            double similarity = (queryVector.length > 0 && queryVector.length <= storedVector.length)
                     ? cosineSimilarity(queryVector, storedVector)
                     : 0.0;
 
@@ -141,9 +198,12 @@ public class RagService {
                 continue;
             }
 
-            scored.add(new ScoredChunk(chunk, similarity));
+            // a chunk can carry more than one vector of the model (e.g. a repair racing a relabel)
+            bestByChunk.merge(chunk.getId(), new ScoredChunk(chunk, similarity),
+                    (a, b) -> a.score() >= b.score() ? a : b);
         }
 
+        List<ScoredChunk> scored = new ArrayList<>(bestByChunk.values());
         scored.sort(Comparator.comparingDouble(ScoredChunk::score).reversed());
         logger.info("Retrieval: {} candidates from policy docs, returning top {} (best score: {})",
                 scored.size(), Math.min(TOP_K, scored.size()),
@@ -152,13 +212,27 @@ public class RagService {
         return scored.stream().limit(TOP_K).toList();
     }
 
+    /**
+     * Whether a vector stored under {@code storedModel} can be scored against a query embedded with
+     * {@code queryModelId}: only vectors of the same model, or untruncated vectors of the base model
+     * of a truncated query ({@code model} for {@code model@256}), which are compared on their leading
+     * dimensions. Rows labelled {@link EmbeddingModelRegistry#LEGACY_MODEL} belong to the legacy model.
+     */
+    private boolean comparable(String queryModelId, String storedModel) {
+        String stored = storedModel == null || EmbeddingModelRegistry.LEGACY_MODEL.equals(storedModel)
+                ? embeddingModels.legacy().modelId() : storedModel;
+        if (stored.equals(queryModelId)) return true;
+        int at = queryModelId.lastIndexOf('@');
+        return at > 0 && stored.equals(queryModelId.substring(0, at));
+    }
+
     private Set<UUID> buildPolicyVersionIds(UUID tenantId) {
         List<Document> allDocs = documentRepo.findAll().stream()
                 .filter(d -> d.getTenantId().equals(tenantId))
                 .toList();
 
         Set<UUID> policyDocIds = allDocs.stream()
-                .filter(d -> d.getType() != DocumentType.QUESTIONNAIRE)
+                .filter(d -> processingProfile.isIndexed(d.getType()))
                 .map(Document::getId)
                 .collect(Collectors.toSet());
 
@@ -172,28 +246,9 @@ public class RagService {
                 .collect(Collectors.toSet());
     }
 
-    private float[] parseEmbedding(String embeddingText) {
-        if (embeddingText == null || embeddingText.isBlank()) return new float[0];
-        try {
-            List<Double> values = objectMapper.readValue(embeddingText, new TypeReference<>() {});
-            float[] result = new float[values.size()];
-            for (int i = 0; i < values.size(); i++) {
-                result[i] = values.get(i).floatValue();
-            }
-            return result;
-        } catch (Exception e) {
-            logger.warn("Failed to parse embedding: {}", e.getMessage());
-            return new float[0];
-        }
-    }
-
-    private boolean isZeroVector(float[] vec) {
-        for (float v : vec) {
-            if (v != 0.0f) return false;
-        }
-        return true;
-    }
-
+    /**
+     * Cosine similarity over the first {@code a.length} components of {@code b}.
+     */
     private double cosineSimilarity(float[] a, float[] b) {
         double dotProduct = 0, normA = 0, normB = 0;
         for (int i = 0; i < a.length; i++) {
@@ -0,0 +1,58 @@
+package com.secfix.todos.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shortens vectors from a Matryoshka-trained model (e.g. voyage-3.5, text-embedding-3-*) to their
+ * first {@code dimensions} components and L2-normalizes the prefix again.
+ *
+ * Stored and query vectors both go through this client, so storage and the retrieval scan shrink
+ * in proportion to the truncation. The model id carries the width ({@code model@256}) so cached and
+ * stored vectors of different widths are never mixed up.
+ */
+public class TruncatingEmbeddingsClient implements EmbeddingsClient {
+    private final EmbeddingsClient delegate;
+    private final int dimensions;
+
+    public TruncatingEmbeddingsClient(EmbeddingsClient delegate, int dimensions) {
+        if (dimensions <= 0 || dimensions > delegate.dimensions()) {
+            throw new IllegalArgumentException("Truncated dimension must be between 1 and " + delegate.dimensions());
+        }
+        this.delegate = delegate;
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public List<float[]> embed(List<String> texts) {
+        List<float[]> full = delegate.embed(texts);
+        List<float[]> truncated = new ArrayList<>(full.size());
+        for (float[] vector : full) {
+            truncated.add(truncate(vector, dimensions));
+        }
+        return truncated;
+    }
+
+    @Override
+    public int dimensions() { return dimensions; }
+
+    @Override
+    public String modelId() { return delegate.modelId() + "@" + dimensions; }
+
+    @Override
+    public void warmUp() { delegate.warmUp(); }
+
+    /**
+     * Returns the normalized first {@code dimensions} components; zero vectors (failed embeddings) stay zero.
+     */
+    public static float[] truncate(float[] vector, int dimensions) {
+        float[] prefix = new float[dimensions];
+        System.arraycopy(vector, 0, prefix, 0, Math.min(dimensions, vector.length));
+        double sum = 0;
+        for (float v : prefix) sum += v * v;
+        if (sum == 0) return prefix;
+        float norm = (float) Math.sqrt(sum);
+        for (int i = 0; i < prefix.length; i++) prefix[i] /= norm;
+        return prefix;
+    }
+}
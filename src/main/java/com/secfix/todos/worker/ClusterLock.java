@@ -0,0 +1,59 @@
+package com.secfix.todos.worker;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Runs scheduled sweeps on one node at a time. Every node schedules the same jobs; a sweep that
+ * reads state and then acts on it (enqueueing jobs, re-embedding chunks) would otherwise do the
+ * work once per node.
+ *
+ * Uses a session-level Postgres advisory lock held on a connection of its own for the duration
+ * of the task, so the task still commits in its own (short) transactions. A node that finds the
+ * lock taken skips the run instead of waiting; the holder is doing the same work.
+ */
+@Component
+public class ClusterLock {
+    public static final long INDEX_BACKFILL = 4242002;
+    public static final long EMBEDDING_REPAIR = 4242003;
+    public static final long EMBEDDING_REEMBED = 4242004;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ClusterLock(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Runs {@code task} if no other node holds {@code key}.
+     *
+     * @return whether the task ran
+     */
+    public boolean runExclusively(long key, Runnable task) {
+        Boolean ran = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+            if (!advisoryLock(connection, "SELECT pg_try_advisory_lock(?)", key)) return false;
+            try {
+                task.run();
+            } finally {
+                advisoryLock(connection, "SELECT pg_advisory_unlock(?)", key);
+            }
+            return true;
+        });
+        return Boolean.TRUE.equals(ran);
+    }
+
+    private static boolean advisoryLock(Connection connection, String sql, long key) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setLong(1, key);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+}
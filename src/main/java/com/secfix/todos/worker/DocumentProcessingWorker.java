@@ -3,26 +3,32 @@ package com.secfix.todos.worker;
 import com.secfix.todos.database.models.*;
 import com.secfix.todos.database.repositories.*;
 import com.secfix.todos.enums.*;
+import com.secfix.todos.exceptions.PermanentProcessingException;
 import com.secfix.todos.services.*;
 import com.secfix.todos.storage.StorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.time.Instant;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 @Component
 public class DocumentProcessingWorker {
     private static final Logger logger = LoggerFactory.getLogger(DocumentProcessingWorker.class);
 
-    private final DocumentProcessingJobRepository jobRepo;
+    private final JobQueue jobQueue;
+    private final StagePlan stagePlan;
     private final DocumentVersionRepository versionRepo;
     private final DocumentArtifactRepository artifactRepo;
     private final DocumentRepository documentRepo;
@@ -31,16 +37,22 @@ public class DocumentProcessingWorker {
     private final StorageService storageService;
     private final KreuzbergClient kreuzbergClient;
     private final ChunkingService chunkingService;
-    private final EmbeddingsClient embeddingsClient;
+    private final ChunkEmbeddingService chunkEmbeddingService;
     private final QuestionnaireExtractionService questionnaireExtractionService;
     private final SpreadsheetParsingService spreadsheetParsingService;
-    private final String workerId;
+    private final TransactionTemplate transactionTemplate;
+
+    private final Executor artifactWriter = Executors.newVirtualThreadPerTaskExecutor();
 
     @Value("${sectool.worker.max-attempts}")
     private int maxAttempts;
 
+    @Value("${sectool.worker.pipeline-mode:staged}")
+    private String pipelineMode;
+
     public DocumentProcessingWorker(
-            DocumentProcessingJobRepository jobRepo,
+            JobQueue jobQueue,
+            StagePlan stagePlan,
             DocumentVersionRepository versionRepo,
             DocumentArtifactRepository artifactRepo,
             DocumentRepository documentRepo,
@@ -49,10 +61,12 @@ public class DocumentProcessingWorker {
             StorageService storageService,
             KreuzbergClient kreuzbergClient,
             ChunkingService chunkingService,
-            EmbeddingsClient embeddingsClient,
+            ChunkEmbeddingService chunkEmbeddingService,
             QuestionnaireExtractionService questionnaireExtractionService,
-            SpreadsheetParsingService spreadsheetParsingService) {
-        this.jobRepo = jobRepo;
+            SpreadsheetParsingService spreadsheetParsingService,
+            TransactionTemplate transactionTemplate) {
+        this.jobQueue = jobQueue;
+        this.stagePlan = stagePlan;
         this.versionRepo = versionRepo;
         this.artifactRepo = artifactRepo;
         this.documentRepo = documentRepo;
@@ -61,79 +75,141 @@ public class DocumentProcessingWorker {
         this.storageService = storageService;
         this.kreuzbergClient = kreuzbergClient;
         this.chunkingService = chunkingService;
-        this.embeddingsClient = embeddingsClient;
+        this.chunkEmbeddingService = chunkEmbeddingService;
         this.questionnaireExtractionService = questionnaireExtractionService;
         this.spreadsheetParsingService = spreadsheetParsingService;
-        this.workerId = "worker-" + UUID.randomUUID().toString().substring(0, 8);
+        this.transactionTemplate = transactionTemplate;
     }
 
-    @Scheduled(fixedDelayString = "${sectool.worker.poll-interval-ms:5000}")
-    public void pollAndProcess() {
-        for (ProcessingJobStage stage : ProcessingJobStage.values()) {
-            try {
-                processStage(stage);
-            } catch (Exception e) {
-                logger.error("Error processing stage {}", stage, e);
-            }
+    /**
+     * What a stage produced for the stages after it. In staged mode it starts empty and each stage
+     * reads its inputs back from the stored artifacts; in fused mode it carries them in memory, and
+     * artifact uploads run in the background until {@link #awaitArtifacts()}.
+     */
+    private final class PipelineState {
+        private final boolean async;
+        private final List<CompletableFuture<Void>> pendingArtifacts = new ArrayList<>();
+        private String extractedText;
+        private String parsedJson;
+        private List<KbChunk> chunks;
+
+        private PipelineState(boolean async) {
+            this.async = async;
         }
-    }
 
-    @Transactional
-    public void processStage(ProcessingJobStage stage) {
-        DocumentProcessingJob job = jobRepo.findNextPendingJob(stage).orElse(null);
-        if (job == null) return;
+        private void store(Runnable write) {
+            if (async) {
+                pendingArtifacts.add(CompletableFuture.runAsync(write, artifactWriter));
+            } else {
+                write.run();
+            }
+        }
 
-        job.setStatus(ProcessingJobStatus.RUNNING);
-        job.setLockedAt(Instant.now());
-        job.setLockedBy(workerId);
-        job.setAttempt(job.getAttempt() + 1);
-        job.setUpdatedAt(Instant.now());
-        jobRepo.save(job);
+        /**
+         * Waits for every background upload and returns the failed ones, without throwing: a failed
+         * upload must not turn the stages that already ran into a failure of the whole job.
+         */
+        private List<Throwable> awaitArtifacts() {
+            List<Throwable> failures = new ArrayList<>();
+            for (CompletableFuture<Void> upload : pendingArtifacts) {
+                try {
+                    upload.join();
+                } catch (CompletionException e) {
+                    failures.add(e.getCause() != null ? e.getCause() : e);
+                }
+            }
+            pendingArtifacts.clear();
+            return failures;
+        }
+    }
 
+    /**
+     * Runs one claimed job's stage and records the outcome; called by {@link WorkerEngine} on a
+     * virtual thread, outside any transaction.
+     */
+    public void process(DocumentProcessingJob job) {
+        ProcessingJobStage stage = job.getStage();
         logger.info("Processing job {} stage {} attempt {}", job.getId(), stage, job.getAttempt());
 
         try {
             DocumentVersion version = versionRepo.findById(job.getDocumentVersionId()).orElseThrow();
 
-            switch (stage) {
-                case PARSE -> handleParse(job, version);
-                case EXTRACT_QUESTIONS -> handleExtractQuestions(job, version);
-                case CHUNK -> handleChunk(job, version);
-                case EMBED -> handleEmbed(job, version);
-                case FINALIZE -> handleFinalize(job, version);
-            }
-
-            job.setStatus(ProcessingJobStatus.DONE);
-            job.setUpdatedAt(Instant.now());
-            jobRepo.save(job);
-
-            ProcessingJobStage nextStage = getNextStage(stage, version);
-            if (nextStage != null) {
-                DocumentProcessingJob nextJob = new DocumentProcessingJob();
-                nextJob.setTenantId(job.getTenantId());
-                nextJob.setDocumentVersionId(job.getDocumentVersionId());
-                nextJob.setStage(nextStage);
-                nextJob.setStatus(ProcessingJobStatus.PENDING);
-                nextJob.setAttempt(0);
-                jobRepo.save(nextJob);
+            if ("fused".equalsIgnoreCase(pipelineMode) && stage == ProcessingJobStage.PARSE
+                    && !jobQueue.hasDownstreamJobs(job)) {
+                processFused(job, version);
+                return;
             }
+            runStage(stage, job, version, new PipelineState(false));
+            jobQueue.complete(job, documentType(version), Set.of());
         } catch (Exception e) {
             logger.error("Job {} failed", job.getId(), e);
-            if (job.getAttempt() >= maxAttempts) {
-                job.setStatus(ProcessingJobStatus.FAILED);
-                job.setErrorMessage(e.getMessage());
-                DocumentVersion version = versionRepo.findById(job.getDocumentVersionId()).orElse(null);
-                if (version != null) {
-                    version.setStatus(DocumentVersionStatus.FAILED);
-                    versionRepo.save(version);
+            jobQueue.fail(job, e, maxAttempts);
+        }
+    }
+
+    /**
+     * Runs every stage of the version in this job, in dependency order, handing parsed text and
+     * chunks from stage to stage in memory while artifacts upload in the background. If a stage
+     * fails, the pipeline falls back to staged mode: the stages that finished are recorded as done,
+     * the failed stage is enqueued as its own job with the error charged to its first attempt, and
+     * the remaining ones follow from it. Artifacts whose upload failed are restored by a new PARSE job.
+     */
+    private void processFused(DocumentProcessingJob job, DocumentVersion version) {
+        PipelineState state = new PipelineState(true);
+        try {
+            runStage(ProcessingJobStage.PARSE, job, version, state);
+        } catch (RuntimeException e) {
+            state.awaitArtifacts();
+            throw e;
+        }
+
+        DocumentType type = documentType(version);
+        Set<ProcessingJobStage> completed = EnumSet.noneOf(ProcessingJobStage.class);
+        List<Throwable> artifactFailures = List.of();
+        ProcessingJobStage stage = null;
+        try {
+            for (ProcessingJobStage next : stagePlan.order(type)) {
+                if (next == ProcessingJobStage.PARSE) continue;
+                stage = next;
+                if (stage == ProcessingJobStage.FINALIZE) {
+                    // READY implies the artifacts are visible in the UI
+                    artifactFailures = state.awaitArtifacts();
+                    if (!artifactFailures.isEmpty()) {
+                        throw new IllegalStateException(artifactFailures.size() + " artifacts of version "
+                                + version.getId() + " failed to store", artifactFailures.getFirst());
+                    }
                 }
-            } else {
-                job.setStatus(ProcessingJobStatus.PENDING);
-                job.setLockedAt(null);
-                job.setLockedBy(null);
+                runStage(stage, job, version, state);
+                completed.add(stage);
+            }
+            jobQueue.complete(job, type, completed);
+            logger.info("Fused pipeline finished version {}", version.getId());
+        } catch (Exception e) {
+            logger.warn("Fused pipeline for version {} failed at {}, continuing in staged mode: {}",
+                    version.getId(), stage, e.getMessage());
+            if (artifactFailures.isEmpty()) {
+                artifactFailures = state.awaitArtifacts();
             }
-            job.setUpdatedAt(Instant.now());
-            jobRepo.save(job);
+            jobQueue.completeUntilFailure(job, type, completed, stage, e, maxAttempts);
+            if (!artifactFailures.isEmpty()) {
+                logger.warn("Version {}: {} artifacts failed to store, re-enqueuing PARSE",
+                        version.getId(), artifactFailures.size(), artifactFailures.getFirst());
+                jobQueue.enqueue(job.getTenantId(), version.getId(), ProcessingJobStage.PARSE, job.getPriority());
+            }
+        }
+    }
+
+    private void runStage(ProcessingJobStage stage, DocumentProcessingJob job, DocumentVersion version, PipelineState state) {
+        if (Thread.currentThread().isInterrupted()) {
+            // WorkerEngine interrupts jobs whose lease was lost
+            throw new CancellationException("Job " + job.getId() + " was cancelled before " + stage);
+        }
+        switch (stage) {
+            case PARSE -> handleParse(job, version, state);
+            case EXTRACT_QUESTIONS -> handleExtractQuestions(job, version, state);
+            case CHUNK -> handleChunk(job, version, state);
+            case EMBED -> handleEmbed(job, version, state);
+            case FINALIZE -> handleFinalize(job, version);
         }
     }
 
@@ -143,7 +219,7 @@ public class DocumentProcessingWorker {
             "application/x-excel"
     );
 
-    private void handleParse(DocumentProcessingJob job, DocumentVersion version) {
+    private void handleParse(DocumentProcessingJob job, DocumentVersion version, PipelineState state) {
         byte[] original = storageService.getObject(version.getObjectKeyOriginal());
         KreuzbergClient.KreuzbergResult kreuzbergResult = kreuzbergClient.parse(
                 original, version.getOriginalFilename(), version.getMimeType());
@@ -152,8 +228,9 @@ public class DocumentProcessingWorker {
         UUID docId = version.getDocumentId();
         UUID verId = version.getId();
 
-        storeArtifact(tenantId, docId, verId, DocumentArtifactKind.EXTRACTED_TEXT,
-                kreuzbergResult.extractedText().getBytes(), "text/plain");
+        state.extractedText = kreuzbergResult.extractedText();
+        state.store(() -> storeArtifact(tenantId, docId, verId, DocumentArtifactKind.EXTRACTED_TEXT,
+                kreuzbergResult.extractedText().getBytes(), "text/plain"));
 
         boolean isSpreadsheet = SPREADSHEET_MIMES.contains(version.getMimeType()) ||
                 (version.getOriginalFilename() != null && version.getOriginalFilename().endsWith(".xlsx"));
@@ -163,31 +240,34 @@ public class DocumentProcessingWorker {
             if (!sheets.isEmpty()) {
                 String structuredJson = spreadsheetParsingService.buildStructuredJson(
                         kreuzbergResult.extractedText(), null, sheets);
-                storeArtifact(tenantId, docId, verId, DocumentArtifactKind.PARSED_JSON,
-                        structuredJson.getBytes(), "application/json");
+                state.parsedJson = structuredJson;
+                state.store(() -> storeArtifact(tenantId, docId, verId, DocumentArtifactKind.PARSED_JSON,
+                        structuredJson.getBytes(), "application/json"));
 
                 String richHtml = spreadsheetParsingService.buildRichHtml(sheets, version.getOriginalFilename());
-                storeArtifact(tenantId, docId, verId, DocumentArtifactKind.RENDERED_HTML,
-                        richHtml.getBytes(), "text/html");
+                state.store(() -> storeArtifact(tenantId, docId, verId, DocumentArtifactKind.RENDERED_HTML,
+                        richHtml.getBytes(), "text/html"));
                 logger.info("Parsed spreadsheet with {} sheets using POI for version {}", sheets.size(), verId);
                 return;
             }
         }
 
-        storeArtifact(tenantId, docId, verId, DocumentArtifactKind.PARSED_JSON,
-                kreuzbergResult.fullJson().getBytes(), "application/json");
-        storeArtifact(tenantId, docId, verId, DocumentArtifactKind.RENDERED_HTML,
-                kreuzbergResult.renderedHtml().getBytes(), "text/html");
+        state.parsedJson = kreuzbergResult.fullJson();
+        state.store(() -> storeArtifact(tenantId, docId, verId, DocumentArtifactKind.PARSED_JSON,
+                kreuzbergResult.fullJson().getBytes(), "application/json"));
+        state.store(() -> storeArtifact(tenantId, docId, verId, DocumentArtifactKind.RENDERED_HTML,
+                kreuzbergResult.renderedHtml().getBytes(), "text/html"));
     }
 
-    private void handleExtractQuestions(DocumentProcessingJob job, DocumentVersion version) {
+    private void handleExtractQuestions(DocumentProcessingJob job, DocumentVersion version, PipelineState state) {
         Document document = documentRepo.findById(version.getDocumentId()).orElse(null);
         if (document == null || document.getType() != DocumentType.QUESTIONNAIRE) {
             logger.info("Skipping EXTRACT_QUESTIONS for non-questionnaire document {}", version.getDocumentId());
             return;
         }
 
-        String parsedJson = loadArtifactText(job.getTenantId(), version.getId(), DocumentArtifactKind.PARSED_JSON);
+        String parsedJson = state.parsedJson != null ? state.parsedJson
+                : loadArtifactText(job.getTenantId(), version.getId(), DocumentArtifactKind.PARSED_JSON);
         if (parsedJson == null) {
             logger.warn("No PARSED_JSON artifact found for version {}", version.getId());
             return;
@@ -204,9 +284,11 @@ public class DocumentProcessingWorker {
         }
     }
 
-    private void handleChunk(DocumentProcessingJob job, DocumentVersion version) {
-        String extractedText = loadArtifactText(job.getTenantId(), version.getId(), DocumentArtifactKind.EXTRACTED_TEXT);
-        String parsedJson = loadArtifactText(job.getTenantId(), version.getId(), DocumentArtifactKind.PARSED_JSON);
+    private void handleChunk(DocumentProcessingJob job, DocumentVersion version, PipelineState state) {
+        String extractedText = state.extractedText != null ? state.extractedText
+                : loadArtifactText(job.getTenantId(), version.getId(), DocumentArtifactKind.EXTRACTED_TEXT);
+        String parsedJson = state.parsedJson != null ? state.parsedJson
+                : loadArtifactText(job.getTenantId(), version.getId(), DocumentArtifactKind.PARSED_JSON);
 
         List<ChunkingService.ChunkResult> chunks;
         if (parsedJson != null) {
@@ -214,9 +296,10 @@ public class DocumentProcessingWorker {
         } else if (extractedText != null) {
             chunks = chunkingService.chunk(extractedText, version.getMimeType());
         } else {
-            throw new RuntimeException("No text or parsed JSON artifact found for version " + version.getId());
+            throw new PermanentProcessingException("No text or parsed JSON artifact found for version " + version.getId());
         }
 
+        List<KbChunk> pending = new ArrayList<>(chunks.size());
         for (ChunkingService.ChunkResult cr : chunks) {
             KbChunk chunk = new KbChunk();
             chunk.setTenantId(job.getTenantId());
@@ -224,25 +307,34 @@ public class DocumentProcessingWorker {
             chunk.setChunkIndex(cr.index());
             chunk.setText(cr.text());
             chunk.setMetadata(cr.metadata());
-            chunkRepo.save(chunk);
+            chunk.setEmbeddingStatus(EmbeddingStatus.PENDING);
+            pending.add(chunk);
         }
+        // replaces the chunks of an earlier run of this stage, in one transaction written in JDBC
+        // batches (hibernate.jdbc.batch_size)
+        state.chunks = transactionTemplate.execute(status -> {
+            embeddingRepo.deleteByDocumentVersion(job.getTenantId(), version.getId());
+            int replaced = chunkRepo.deleteByTenantIdAndDocumentVersionId(job.getTenantId(), version.getId());
+            if (replaced > 0) {
+                logger.info("Replacing {} chunks of version {} from an earlier run", replaced, version.getId());
+            }
+            return chunkRepo.saveAll(pending);
+        });
     }
 
-    private void handleEmbed(DocumentProcessingJob job, DocumentVersion version) {
-        List<KbChunk> chunks = chunkRepo.findByTenantIdAndDocumentVersionId(
-                job.getTenantId(), version.getId());
+    private void handleEmbed(DocumentProcessingJob job, DocumentVersion version, PipelineState state) {
+        List<KbChunk> chunks = state.chunks != null ? state.chunks
+                : chunkRepo.findByTenantIdAndDocumentVersionId(job.getTenantId(), version.getId());
         if (chunks.isEmpty()) return;
 
-        List<String> texts = chunks.stream().map(KbChunk::getText).collect(Collectors.toList());
-        List<float[]> embeddings = embeddingsClient.embed(texts);
-
-        for (int i = 0; i < chunks.size(); i++) {
-            KbEmbedding emb = new KbEmbedding();
-            emb.setTenantId(job.getTenantId());
-            emb.setChunkId(chunks.get(i).getId());
-            emb.setEmbeddingModel("default");
-            emb.setEmbedding(serializeEmbedding(embeddings.get(i)));
-            embeddingRepo.save(emb);
+        ChunkEmbeddingService.EmbedOutcome outcome = chunkEmbeddingService.embedPending(job.getTenantId(), chunks);
+        if (outcome.failed() > 0) {
+            if (job.getAttempt() < maxAttempts) {
+                throw new RuntimeException(outcome.failed() + " of " + chunks.size() + " chunks failed to embed");
+            }
+            // last attempt: let the document become READY and leave the failed chunks to the repair job
+            logger.warn("Version {}: {} chunks failed to embed, leaving them for the repair job",
+                    version.getId(), outcome.failed());
         }
     }
 
@@ -261,8 +353,16 @@ public class DocumentProcessingWorker {
                 .orElse(null);
     }
 
+    /**
+     * Stores the artifact unless the version already has one of that kind, so that a re-run of PARSE
+     * only restores the artifacts that are missing.
+     */
     private void storeArtifact(UUID tenantId, UUID docId, UUID verId,
                                 DocumentArtifactKind kind, byte[] data, String contentType) {
+        if (artifactRepo.existsByTenantIdAndDocumentVersionIdAndKind(tenantId, verId, kind)) {
+            logger.debug("Version {} already has a {} artifact", verId, kind);
+            return;
+        }
         String objectKey = storageService.buildObjectKey(tenantId, docId, verId, "artifacts/" + kind.name().toLowerCase());
         storageService.putObject(objectKey, data, contentType);
 
@@ -275,20 +375,9 @@ public class DocumentProcessingWorker {
         artifactRepo.save(artifact);
     }
 
-    private String serializeEmbedding(float[] embedding) {
-        return Arrays.toString(embedding);
-    }
-
-    private ProcessingJobStage getNextStage(ProcessingJobStage current, DocumentVersion version) {
-        Document document = documentRepo.findById(version.getDocumentId()).orElse(null);
-        boolean isQuestionnaire = document != null && document.getType() == DocumentType.QUESTIONNAIRE;
-
-        return switch (current) {
-            case PARSE -> isQuestionnaire ? ProcessingJobStage.EXTRACT_QUESTIONS : ProcessingJobStage.CHUNK;
-            case EXTRACT_QUESTIONS -> ProcessingJobStage.CHUNK;
-            case CHUNK -> ProcessingJobStage.EMBED;
-            case EMBED -> ProcessingJobStage.FINALIZE;
-            case FINALIZE -> null;
-        };
+    private DocumentType documentType(DocumentVersion version) {
+        return documentRepo.findById(version.getDocumentId())
+                .map(Document::getType)
+                .orElse(DocumentType.OTHER);
     }
 }
@@ -0,0 +1,136 @@
+package com.secfix.todos.worker;
+
+import com.secfix.todos.database.models.KbChunk;
+import com.secfix.todos.enums.EmbeddingStatus;
+import com.secfix.todos.database.models.Tenant;
+import com.secfix.todos.database.repositories.KbChunkRepository;
+import com.secfix.todos.database.repositories.KbEmbeddingRepository;
+import com.secfix.todos.database.repositories.TenantRepository;
+import com.secfix.todos.services.ChunkEmbeddingService;
+import com.secfix.todos.services.EmbeddingModelRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Moves tenants onto the configured embeddings model without interrupting retrieval.
+ *
+ * For every tenant whose active model differs from the configured one, chunks are re-embedded in
+ * throttled batches next to the existing vectors, while retrieval keeps using the old model.
+ * Chunks uploaded mid-migration are embedded with both models (see {@link ChunkEmbeddingService}),
+ * so they are searchable right away. Once every chunk has a vector for the new model, the tenant's
+ * active model is switched and the replaced vectors are dropped in one transaction. Chunks the new
+ * model keeps failing on count against {@code repair-max-attempts}; once that is spent they no
+ * longer hold up the switch, and they keep their old vector instead of losing their only one.
+ *
+ * Tenants without an active model still hold vectors under the legacy label. Those vectors are
+ * relabelled to the model that produced them ({@link EmbeddingModelRegistry#legacy()}) first; when
+ * that is the configured model, the tenant is switched right away and nothing is re-embedded.
+ *
+ * Runs on one node at a time ({@link ClusterLock}), so nodes don't re-embed the same chunks.
+ */
+@Component
+public class EmbeddingReembedJob {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingReembedJob.class);
+
+    private final TenantRepository tenantRepo;
+    private final KbChunkRepository chunkRepo;
+    private final KbEmbeddingRepository embeddingRepo;
+    private final ChunkEmbeddingService chunkEmbeddingService;
+    private final EmbeddingModelRegistry embeddingModels;
+    private final TransactionTemplate transactionTemplate;
+    private final ClusterLock clusterLock;
+
+    @Value("${sectool.embeddings.reembed.batch-size:200}")
+    private int batchSize;
+
+    @Value("${sectool.embeddings.repair-max-attempts:5}")
+    private int maxAttempts;
+
+    public EmbeddingReembedJob(TenantRepository tenantRepo, KbChunkRepository chunkRepo,
+                               KbEmbeddingRepository embeddingRepo, ChunkEmbeddingService chunkEmbeddingService,
+                               EmbeddingModelRegistry embeddingModels, TransactionTemplate transactionTemplate,
+                               ClusterLock clusterLock) {
+        this.tenantRepo = tenantRepo;
+        this.chunkRepo = chunkRepo;
+        this.embeddingRepo = embeddingRepo;
+        this.chunkEmbeddingService = chunkEmbeddingService;
+        this.embeddingModels = embeddingModels;
+        this.transactionTemplate = transactionTemplate;
+        this.clusterLock = clusterLock;
+    }
+
+    /**
+     * Re-embeds at most {@code batch-size} chunks per run, so a model change does not starve
+     * the document processing worker of embeddings provider capacity.
+     */
+    @Scheduled(fixedDelayString = "${sectool.embeddings.reembed.interval-ms:30000}",
+            initialDelayString = "${sectool.embeddings.reembed.interval-ms:30000}")
+    public void reembed() {
+        if (!clusterLock.runExclusively(ClusterLock.EMBEDDING_REEMBED, this::reembedBatch)) {
+            logger.debug("Re-embedding is running on another node");
+        }
+    }
+
+    private void reembedBatch() {
+        String model = embeddingModels.current().modelId();
+        int budget = batchSize;
+        for (Tenant tenant : tenantRepo.findAll()) {
+            if (budget <= 0) break;
+            if (model.equals(tenant.getActiveEmbeddingModel())) continue;
+            try {
+                if (tenant.getActiveEmbeddingModel() == null) {
+                    adoptLegacyVectors(tenant);
+                    if (model.equals(tenant.getActiveEmbeddingModel())) continue;
+                }
+                List<KbChunk> chunks = chunkRepo.findChunksMissingEmbeddingModel(tenant.getId(), model, maxAttempts, budget);
+                if (chunks.isEmpty()) {
+                    switchModel(tenant, model);
+                    continue;
+                }
+                List<UUID> retried = chunks.stream()
+                        .filter(c -> c.getEmbeddingStatus() == EmbeddingStatus.FAILED)
+                        .map(KbChunk::getId)
+                        .toList();
+                if (!retried.isEmpty()) {
+                    transactionTemplate.executeWithoutResult(status -> chunkRepo.incrementRepairAttempts(retried));
+                }
+                ChunkEmbeddingService.EmbedOutcome outcome = chunkEmbeddingService.embedAll(tenant.getId(), chunks);
+                budget -= chunks.size();
+                logger.info("Re-embedding tenant {} with {}: {} chunks embedded, {} failed",
+                        tenant.getId(), model, outcome.embedded(), outcome.failed());
+            } catch (Exception e) {
+                logger.error("Re-embedding tenant {} with {} failed", tenant.getId(), model, e);
+            }
+        }
+    }
+
+    private void adoptLegacyVectors(Tenant tenant) {
+        String legacyModel = embeddingModels.legacy().modelId();
+        Integer relabelled = transactionTemplate.execute(status -> {
+            embeddingRepo.deleteShadowedVectors(tenant.getId(), EmbeddingModelRegistry.LEGACY_MODEL, legacyModel);
+            int rows = embeddingRepo.relabelModel(tenant.getId(), EmbeddingModelRegistry.LEGACY_MODEL, legacyModel);
+            tenant.setActiveEmbeddingModel(legacyModel);
+            tenantRepo.save(tenant);
+            return rows;
+        });
+        logger.info("Tenant {} legacy vectors relabelled to {} ({} rows)", tenant.getId(), legacyModel, relabelled);
+    }
+
+    private void switchModel(Tenant tenant, String model) {
+        String previous = tenant.getActiveEmbeddingModel();
+        Integer removed = transactionTemplate.execute(status -> {
+            tenant.setActiveEmbeddingModel(model);
+            tenantRepo.save(tenant);
+            return embeddingRepo.deleteVectorsReplacedBy(tenant.getId(), model);
+        });
+        logger.info("Tenant {} switched embedding model {} -> {}, removed {} replaced vectors",
+                tenant.getId(), previous, model, removed);
+    }
+}
@@ -0,0 +1,85 @@
+package com.secfix.todos.worker;
+
+import com.secfix.todos.database.models.KbChunk;
+import com.secfix.todos.database.repositories.KbChunkRepository;
+import com.secfix.todos.services.ChunkEmbeddingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Periodically re-embeds chunks of READY documents that have no usable embedding: chunks
+ * marked FAILED, and older chunks whose stored vector is missing or all zeros. Every try counts
+ * against the chunk's {@code repair_attempts}; after {@code repair-max-attempts} it is left alone.
+ * Runs on one node at a time ({@link ClusterLock}), so a chunk is not embedded and charged twice.
+ */
+@Component
+public class EmbeddingRepairJob {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingRepairJob.class);
+
+    private final KbChunkRepository chunkRepo;
+    private final ChunkEmbeddingService chunkEmbeddingService;
+    private final TransactionTemplate transactionTemplate;
+    private final ClusterLock clusterLock;
+
+    @Value("${sectool.embeddings.repair-batch-size:500}")
+    private int repairBatchSize;
+
+    @Value("${sectool.embeddings.repair-max-attempts:5}")
+    private int repairMaxAttempts;
+
+    public EmbeddingRepairJob(KbChunkRepository chunkRepo, ChunkEmbeddingService chunkEmbeddingService,
+                              TransactionTemplate transactionTemplate, ClusterLock clusterLock) {
+        this.chunkRepo = chunkRepo;
+        this.chunkEmbeddingService = chunkEmbeddingService;
+        this.transactionTemplate = transactionTemplate;
+        this.clusterLock = clusterLock;
+    }
+
+    @Scheduled(fixedDelayString = "${sectool.embeddings.repair-interval-ms:600000}",
+            initialDelayString = "${sectool.embeddings.repair-interval-ms:600000}")
+    public void repairEmbeddings() {
+        if (!clusterLock.runExclusively(ClusterLock.EMBEDDING_REPAIR, this::repairBatch)) {
+            logger.debug("Embedding repair is running on another node");
+        }
+    }
+
+    private void repairBatch() {
+        List<KbChunk> chunks;
+        try {
+            chunks = chunkRepo.findChunksNeedingEmbeddingRepair(repairMaxAttempts, repairBatchSize);
+            if (chunks.isEmpty()) return;
+            transactionTemplate.executeWithoutResult(status ->
+                    chunkRepo.incrementRepairAttempts(chunks.stream().map(KbChunk::getId).toList()));
+        } catch (Exception e) {
+            logger.error("Embedding repair query failed", e);
+            return;
+        }
+        long lastAttempts = chunks.stream()
+                .filter(c -> (c.getRepairAttempts() != null ? c.getRepairAttempts() : 0) + 1 >= repairMaxAttempts)
+                .count();
+
+        Map<UUID, List<KbChunk>> byTenant = chunks.stream().collect(Collectors.groupingBy(KbChunk::getTenantId));
+        int repaired = 0;
+        int failed = 0;
+        for (Map.Entry<UUID, List<KbChunk>> entry : byTenant.entrySet()) {
+            try {
+                ChunkEmbeddingService.EmbedOutcome outcome = chunkEmbeddingService.embedPending(entry.getKey(), entry.getValue());
+                repaired += outcome.embedded();
+                failed += outcome.failed();
+            } catch (Exception e) {
+                logger.error("Embedding repair failed for tenant {}", entry.getKey(), e);
+            }
+        }
+        logger.info("Embedding repair: {} chunks re-embedded, {} still failing, {} were on their last attempt",
+                repaired, failed, lastAttempts);
+    }
+}
@@ -0,0 +1,74 @@
+package com.secfix.todos.worker;
+
+import com.secfix.todos.database.models.DocumentVersion;
+import com.secfix.todos.database.repositories.DocumentVersionRepository;
+import com.secfix.todos.enums.DocumentType;
+import com.secfix.todos.enums.ProcessingJobPriority;
+import com.secfix.todos.enums.ProcessingJobStage;
+import com.secfix.todos.services.DocumentProcessingProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Indexes documents whose type became indexed after they were processed.
+ *
+ * When {@code sectool.processing.indexed-types} gains a type (e.g. questionnaires as a knowledge
+ * source), READY versions of that type have no chunks. This job enqueues a LOW priority CHUNK job
+ * for a batch of them per run, so uploads are not held up; the stage plan then runs EMBED, while
+ * FINALIZE is already done so the version stays READY throughout. Chunks of types that are no
+ * longer indexed are kept but excluded from retrieval.
+ *
+ * The sweep runs on one node at a time ({@link ClusterLock}): the query only skips versions that
+ * already have a CHUNK job, so concurrent sweeps would enqueue the same versions twice.
+ */
+@Component
+public class IndexBackfillJob {
+    private static final Logger logger = LoggerFactory.getLogger(IndexBackfillJob.class);
+
+    private final DocumentVersionRepository versionRepo;
+    private final DocumentProcessingProfile profile;
+    private final JobQueue jobQueue;
+    private final ClusterLock clusterLock;
+
+    @Value("${sectool.processing.backfill-batch-size:100}")
+    private int batchSize;
+
+    public IndexBackfillJob(DocumentVersionRepository versionRepo, DocumentProcessingProfile profile, JobQueue jobQueue,
+                           ClusterLock clusterLock) {
+        this.versionRepo = versionRepo;
+        this.profile = profile;
+        this.jobQueue = jobQueue;
+        this.clusterLock = clusterLock;
+    }
+
+    @Scheduled(fixedDelayString = "${sectool.processing.backfill-interval-ms:300000}",
+            initialDelayString = "${sectool.processing.backfill-initial-delay-ms:60000}")
+    public void backfill() {
+        if (profile.indexedTypes().isEmpty()) return;
+        if (!clusterLock.runExclusively(ClusterLock.INDEX_BACKFILL, this::enqueueBatch)) {
+            logger.debug("Index backfill is running on another node");
+        }
+    }
+
+    private void enqueueBatch() {
+        List<DocumentVersion> versions;
+        try {
+            versions = versionRepo.findReadyVersionsNotChunked(
+                    profile.indexedTypes().stream().map(DocumentType::name).toList(), batchSize);
+        } catch (Exception e) {
+            logger.error("Index backfill query failed", e);
+            return;
+        }
+        if (versions.isEmpty()) return;
+
+        for (DocumentVersion version : versions) {
+            jobQueue.enqueue(version.getTenantId(), version.getId(), ProcessingJobStage.CHUNK, ProcessingJobPriority.LOW);
+        }
+        logger.info("Index backfill: enqueued CHUNK for {} document versions", versions.size());
+    }
+}
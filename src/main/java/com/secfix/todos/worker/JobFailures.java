@@ -0,0 +1,37 @@
+package com.secfix.todos.worker;
+
+import com.secfix.todos.exceptions.PermanentProcessingException;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Classifies job failures. Permanent failures are marked explicitly with
+ * {@link PermanentProcessingException}, or are errors no retry can fix (a missing object or row,
+ * invalid input); anything else, notably timeouts and 5xx/429 responses of Kreuzberg and the
+ * embeddings provider, is transient and retried with backoff.
+ */
+final class JobFailures {
+    static final String TRANSIENT = "TRANSIENT";
+    static final String PERMANENT = "PERMANENT";
+
+    private JobFailures() {
+    }
+
+    static boolean isPermanent(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof PermanentProcessingException
+                    || t instanceof NoSuchKeyException
+                    || t instanceof NoSuchElementException
+                    || t instanceof IllegalArgumentException) {
+                return true;
+            }
+            if (t.getCause() == t) break;
+        }
+        return false;
+    }
+
+    static String errorCode(Throwable error) {
+        return isPermanent(error) ? PERMANENT : TRANSIENT;
+    }
+}
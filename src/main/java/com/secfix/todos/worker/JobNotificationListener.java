@@ -0,0 +1,93 @@
+package com.secfix.todos.worker;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+/**
+ * Holds a dedicated (non-pooled) connection that {@code LISTEN}s on {@value JobNotifications#CHANNEL}
+ * and wakes the {@link WorkerEngine} on every notification.
+ *
+ * After a lost connection it reconnects with a delay and wakes the engine once, since notifications
+ * sent in between are gone; the engine's slow poll covers anything else that slips through.
+ */
+@Component
+public class JobNotificationListener implements SmartLifecycle {
+    private static final Logger logger = LoggerFactory.getLogger(JobNotificationListener.class);
+    private static final int RECEIVE_TIMEOUT_MS = 10_000;
+    private static final long RECONNECT_DELAY_MS = 5_000;
+
+    private final WorkerEngine workerEngine;
+    private final String url;
+    private final String username;
+    private final String password;
+    private final boolean enabled;
+
+    private volatile boolean running;
+    private Thread listener;
+
+    public JobNotificationListener(WorkerEngine workerEngine,
+                                   @Value("${spring.datasource.url}") String url,
+                                   @Value("${spring.datasource.username:}") String username,
+                                   @Value("${spring.datasource.password:}") String password,
+                                   @Value("${sectool.worker.listen-notify:true}") boolean enabled) {
+        this.workerEngine = workerEngine;
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) return;
+        running = true;
+        listener = Thread.ofPlatform().name("job-listener").daemon().start(this::listen);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (listener != null) listener.interrupt();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(url, username, password)) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + JobNotifications.CHANNEL);
+                }
+                logger.info("Listening for job notifications on {}", JobNotifications.CHANNEL);
+                workerEngine.wakeUp();
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(RECEIVE_TIMEOUT_MS);
+                    if (notifications != null && notifications.length > 0) {
+                        workerEngine.wakeUp();
+                    }
+                }
+            } catch (Exception e) {
+                if (!running) return;
+                logger.warn("Job notification listener failed, reconnecting in {} ms: {}", RECONNECT_DELAY_MS, e.getMessage());
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+}
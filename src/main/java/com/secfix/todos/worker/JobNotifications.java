@@ -0,0 +1,35 @@
+package com.secfix.todos.worker;
+
+import com.secfix.todos.enums.ProcessingJobStage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes a Postgres {@code NOTIFY} on {@value #CHANNEL} whenever a job becomes PENDING, so
+ * idle workers on every node wake up immediately instead of waiting for their next poll.
+ *
+ * Called inside the transaction that enqueues the job; Postgres delivers the notification only
+ * when that transaction commits, so listeners never see a job before it is claimable.
+ */
+@Component
+public class JobNotifications {
+    private static final Logger logger = LoggerFactory.getLogger(JobNotifications.class);
+    public static final String CHANNEL = "sectool_jobs";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public JobNotifications(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void jobEnqueued(ProcessingJobStage stage) {
+        try {
+            jdbcTemplate.queryForObject("SELECT pg_notify(?, ?)", Object.class, CHANNEL, stage.name());
+        } catch (Exception e) {
+            // polling still picks the job up
+            logger.warn("NOTIFY for {} job failed: {}", stage, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.secfix.todos.worker;
+
+import com.secfix.todos.database.models.DocumentProcessingJob;
+import com.secfix.todos.database.models.DocumentVersion;
+import com.secfix.todos.database.repositories.DocumentProcessingJobRepository;
+import com.secfix.todos.database.repositories.DocumentVersionRepository;
+import com.secfix.todos.enums.DocumentType;
+import com.secfix.todos.enums.DocumentVersionStatus;
+import com.secfix.todos.enums.ProcessingJobPriority;
+import com.secfix.todos.enums.ProcessingJobStage;
+import com.secfix.todos.enums.ProcessingJobStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * State transitions of {@link DocumentProcessingJob} rows, each in its own short transaction.
+ *
+ * Jobs are claimed in batches by a single {@code UPDATE ... RETURNING} over rows selected with
+ * {@code FOR UPDATE SKIP LOCKED}, so concurrent workers never pick up the same job; the stage
+ * itself runs outside any transaction. Ownership is a time-bounded lease ({@code locked_by},
+ * {@code lease_expires_at}) that the worker extends with heartbeats; completion only takes effect
+ * while the caller still holds the lease.
+ */
+@Component
+public class JobQueue {
+    private static final Logger logger = LoggerFactory.getLogger(JobQueue.class);
+
+    private final DocumentProcessingJobRepository jobRepo;
+    private final DocumentVersionRepository versionRepo;
+    private final TransactionTemplate transactionTemplate;
+    private final JobNotifications notifications;
+    private final StagePlan stagePlan;
+    private final TenantSchedulingPolicy tenantPolicy;
+
+    @Value("${sectool.worker.lease-ms:300000}")
+    private long leaseMs;
+
+    @Value("${sectool.worker.priority.aging-ms:600000}")
+    private long agingMs;
+
+    @Value("${sectool.worker.priority.max-wait-ms:3600000}")
+    private long maxWaitMs;
+
+    @Value("${sectool.worker.retry.base-delay-ms:30000}")
+    private long retryBaseDelayMs;
+
+    @Value("${sectool.worker.retry.max-delay-ms:600000}")
+    private long retryMaxDelayMs;
+
+    public JobQueue(DocumentProcessingJobRepository jobRepo, DocumentVersionRepository versionRepo,
+                    TransactionTemplate transactionTemplate, JobNotifications notifications, StagePlan stagePlan,
+                    TenantSchedulingPolicy tenantPolicy) {
+        this.jobRepo = jobRepo;
+        this.versionRepo = versionRepo;
+        this.transactionTemplate = transactionTemplate;
+        this.notifications = notifications;
+        this.stagePlan = stagePlan;
+        this.tenantPolicy = tenantPolicy;
+    }
+
+    public record ReapedJobs(List<DocumentProcessingJob> requeued, List<DocumentProcessingJob> failed) {}
+
+    public long leaseMs() {
+        return leaseMs;
+    }
+
+    /**
+     * Leases up to {@code slots.get(stage)} pending jobs of each stage in a single round trip,
+     * shared across tenants according to the {@link TenantSchedulingPolicy}.
+     */
+    public List<DocumentProcessingJob> claim(Map<ProcessingJobStage, Integer> slots, String workerId) {
+        String capacity = slots.entrySet().stream()
+                .filter(e -> e.getValue() > 0)
+                .map(e -> e.getKey().name() + ":" + e.getValue())
+                .collect(Collectors.joining(","));
+        if (capacity.isEmpty()) return List.of();
+        List<DocumentProcessingJob> claimed = transactionTemplate.execute(
+                status -> {
+                    jobRepo.lockClaims();
+                    return jobRepo.claimPendingJobs(capacity, workerId, leaseMs, tenantPolicy.encoded(),
+                            tenantPolicy.defaultWeight(), tenantPolicy.defaultMaxRunning(), agingMs, maxWaitMs);
+                });
+        return claimed != null ? claimed : List.of();
+    }
+
+    /**
+     * Extends the leases of the given running jobs; returns the ids whose lease this worker still holds.
+     */
+    public Set<UUID> heartbeat(Collection<UUID> jobIds, String workerId) {
+        if (jobIds.isEmpty()) return Set.of();
+        List<UUID> extended = transactionTemplate.execute(status -> jobRepo.extendLeases(jobIds, workerId, leaseMs));
+        return extended != null ? new HashSet<>(extended) : Set.of();
+    }
+
+    /**
+     * Enqueues a single stage for an existing version, outside the normal stage flow.
+     */
+    public void enqueue(UUID tenantId, UUID versionId, ProcessingJobStage stage, ProcessingJobPriority priority) {
+        transactionTemplate.executeWithoutResult(status -> {
+            DocumentProcessingJob job = new DocumentProcessingJob();
+            job.setTenantId(tenantId);
+            job.setDocumentVersionId(versionId);
+            job.setStage(stage);
+            job.setStatus(ProcessingJobStatus.PENDING);
+            job.setPriority(priority);
+            job.setAttempt(0);
+            jobRepo.save(job);
+            notifications.jobEnqueued(stage);
+        });
+    }
+
+    /**
+     * Marks the job DONE and enqueues every successor stage whose dependencies are now all DONE.
+     * {@code completedInline} lists further stages the job ran in-process (fused mode), which are
+     * recorded as DONE jobs. Does nothing if the lease was lost, since another worker now owns the job.
+     */
+    public void complete(DocumentProcessingJob job, DocumentType type, Set<ProcessingJobStage> completedInline) {
+        transactionTemplate.executeWithoutResult(status -> recordCompletion(job, type, completedInline));
+    }
+
+    /**
+     * Completes a fused job that stopped at {@code failedStage}: the stages it finished are recorded
+     * as in {@link #complete}, and the failed stage, now enqueued as its own job, is charged with
+     * {@code error} as its first attempt, so it is classified and backed off as if it had failed
+     * as a job of its own.
+     */
+    public void completeUntilFailure(DocumentProcessingJob job, DocumentType type, Set<ProcessingJobStage> completedInline,
+                                     ProcessingJobStage failedStage, Exception error, int maxAttempts) {
+        String errorCode = JobFailures.errorCode(error);
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!recordCompletion(job, type, completedInline)) return;
+            for (DocumentProcessingJob next : jobRepo.findByTenantIdAndDocumentVersionId(job.getTenantId(), job.getDocumentVersionId())) {
+                if (next.getStage() != failedStage || next.getStatus() != ProcessingJobStatus.PENDING
+                        || next.getAttempt() != 0) {
+                    continue;
+                }
+                next.setAttempt(1);
+                next.setErrorCode(errorCode);
+                next.setErrorMessage(error.getMessage());
+                if (JobFailures.PERMANENT.equals(errorCode) || maxAttempts <= 1) {
+                    next.setStatus(ProcessingJobStatus.FAILED);
+                    failVersion(job.getDocumentVersionId());
+                } else {
+                    next.setNextRunAt(Instant.now().plusMillis(retryDelayMs(1)));
+                }
+                jobRepo.save(next);
+            }
+        });
+    }
+
+    /**
+     * Whether stages after PARSE were already enqueued for the job's version, i.e. the PARSE job is
+     * a re-run that only has to restore missing artifacts.
+     */
+    public boolean hasDownstreamJobs(DocumentProcessingJob job) {
+        return jobRepo.findByTenantIdAndDocumentVersionId(job.getTenantId(), job.getDocumentVersionId()).stream()
+                .anyMatch(j -> j.getStage() != ProcessingJobStage.PARSE);
+    }
+
+    private boolean recordCompletion(DocumentProcessingJob job, DocumentType type, Set<ProcessingJobStage> completedInline) {
+        int updated = jobRepo.finishLeased(job.getId(), job.getLockedBy(), job.getAttempt(),
+                ProcessingJobStatus.DONE, null, null, Instant.now());
+        if (updated == 0) {
+            logger.warn("Job {} finished after its lease was lost; result discarded", job.getId());
+            return false;
+        }
+
+        // predecessors finishing concurrently must see each other's DONE, or FINALIZE is never enqueued
+        versionRepo.lockById(job.getDocumentVersionId());
+        Set<ProcessingJobStage> completed = EnumSet.of(job.getStage());
+        for (ProcessingJobStage stage : completedInline) {
+            if (completed.add(stage)) {
+                jobRepo.save(newJob(job, stage, ProcessingJobStatus.DONE));
+            }
+        }
+
+        Set<ProcessingJobStage> enqueued = EnumSet.noneOf(ProcessingJobStage.class);
+        Set<ProcessingJobStage> done = EnumSet.copyOf(completed);
+        for (DocumentProcessingJob existing : jobRepo.findByTenantIdAndDocumentVersionId(job.getTenantId(), job.getDocumentVersionId())) {
+            enqueued.add(existing.getStage());
+            if (existing.getStatus() == ProcessingJobStatus.DONE) done.add(existing.getStage());
+        }
+        for (ProcessingJobStage finished : completed) {
+            for (ProcessingJobStage next : stagePlan.successors(type, finished)) {
+                if (!enqueued.contains(next) && done.containsAll(stagePlan.dependencies(type, next))) {
+                    jobRepo.save(newJob(job, next, ProcessingJobStatus.PENDING));
+                    enqueued.add(next);
+                    notifications.jobEnqueued(next);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fails the job and its document version if the error is permanent or {@code maxAttempts} is
+     * reached; otherwise returns it to PENDING, to be claimed again after an exponential backoff.
+     * Does nothing if the lease was lost.
+     */
+    public void fail(DocumentProcessingJob job, Exception error, int maxAttempts) {
+        String errorCode = JobFailures.errorCode(error);
+        transactionTemplate.executeWithoutResult(status -> {
+            Instant now = Instant.now();
+            if (JobFailures.PERMANENT.equals(errorCode) || job.getAttempt() >= maxAttempts) {
+                int updated = jobRepo.finishLeased(job.getId(), job.getLockedBy(), job.getAttempt(),
+                        ProcessingJobStatus.FAILED, errorCode, error.getMessage(), now);
+                if (updated > 0) {
+                    logger.warn("Job {} failed ({}, attempt {}): {}", job.getId(), errorCode, job.getAttempt(), error.getMessage());
+                    failVersion(job.getDocumentVersionId());
+                }
+            } else {
+                Instant nextRunAt = now.plusMillis(retryDelayMs(job.getAttempt()));
+                if (jobRepo.releaseLeased(job.getId(), job.getLockedBy(), job.getAttempt(), nextRunAt,
+                        errorCode, error.getMessage(), now) > 0) {
+                    logger.info("Job {} will be retried after {}", job.getId(), nextRunAt);
+                }
+            }
+        });
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half of {@code base * 2^(attempt - 1)}, capped at the
+     * maximum delay, plus a random share of the other half, so retries of jobs that failed together
+     * spread out instead of hitting a recovering service at once.
+     */
+    private long retryDelayMs(int attempt) {
+        long delay = Math.min(retryMaxDelayMs, retryBaseDelayMs << Math.min(Math.max(0, attempt - 1), 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Takes back every job whose lease expired: requeues it, or fails it and its document version
+     * when it was on its last attempt.
+     */
+    public ReapedJobs reapExpiredLeases(int maxAttempts) {
+        ReapedJobs reaped = transactionTemplate.execute(status -> {
+            List<DocumentProcessingJob> requeued = jobRepo.requeueExpiredLeases(maxAttempts, leaseMs);
+            List<DocumentProcessingJob> failed = jobRepo.failExpiredLeases(maxAttempts, leaseMs);
+            failed.stream().map(DocumentProcessingJob::getDocumentVersionId).distinct().forEach(this::failVersion);
+            requeued.stream().map(DocumentProcessingJob::getStage).distinct().forEach(notifications::jobEnqueued);
+            return new ReapedJobs(requeued, failed);
+        });
+        return reaped != null ? reaped : new ReapedJobs(List.of(), List.of());
+    }
+
+    private static DocumentProcessingJob newJob(DocumentProcessingJob from, ProcessingJobStage stage, ProcessingJobStatus status) {
+        DocumentProcessingJob job = new DocumentProcessingJob();
+        job.setTenantId(from.getTenantId());
+        job.setDocumentVersionId(from.getDocumentVersionId());
+        job.setStage(stage);
+        job.setStatus(status);
+        job.setPriority(from.getPriority());
+        if (status == ProcessingJobStatus.DONE) {
+            job.setAttempt(1);
+            job.setLockedBy(from.getLockedBy());
+        } else {
+            job.setAttempt(0);
+        }
+        return job;
+    }
+
+    /**
+     * Marks the version FAILED, unless FINALIZE already made it READY: a failing backfill stage
+     * (CHUNK/EMBED enqueued by {@link IndexBackfillJob}) leaves the document usable as it was.
+     */
+    private void failVersion(UUID versionId) {
+        DocumentVersion version = versionRepo.findById(versionId).orElse(null);
+        if (version != null && version.getStatus() == DocumentVersionStatus.READY) {
+            logger.warn("Job of READY version {} failed; the version stays READY", versionId);
+        } else if (version != null) {
+            version.setStatus(DocumentVersionStatus.FAILED);
+            versionRepo.save(version);
+        }
+    }
+}
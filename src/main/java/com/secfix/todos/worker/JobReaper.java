@@ -0,0 +1,63 @@
+package com.secfix.todos.worker;
+
+import com.secfix.todos.database.models.DocumentProcessingJob;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Recovers jobs left RUNNING by a worker that crashed or lost its database connection: once the
+ * lease has expired, the job is requeued (or failed on its last attempt). Reclaimed jobs are
+ * counted in {@code sectool.worker.jobs.reclaimed}, tagged by stage and outcome.
+ */
+@Component
+public class JobReaper {
+    private static final Logger logger = LoggerFactory.getLogger(JobReaper.class);
+
+    private final JobQueue jobQueue;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${sectool.worker.max-attempts}")
+    private int maxAttempts;
+
+    public JobReaper(JobQueue jobQueue, MeterRegistry meterRegistry) {
+        this.jobQueue = jobQueue;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Scheduled(fixedDelayString = "${sectool.worker.reaper-interval-ms:60000}")
+    public void reapExpiredLeases() {
+        JobQueue.ReapedJobs reaped;
+        try {
+            reaped = jobQueue.reapExpiredLeases(maxAttempts);
+        } catch (Exception e) {
+            logger.error("Reaping expired job leases failed", e);
+            return;
+        }
+        record(reaped.requeued(), "requeued");
+        record(reaped.failed(), "failed");
+        for (DocumentProcessingJob job : reaped.requeued()) {
+            logger.warn("Job {} ({}) lease expired on attempt {}, requeued", job.getId(), job.getStage(), job.getAttempt());
+        }
+        for (DocumentProcessingJob job : reaped.failed()) {
+            logger.warn("Job {} ({}) lease expired on its last attempt, marked FAILED", job.getId(), job.getStage());
+        }
+    }
+
+    private void record(List<DocumentProcessingJob> jobs, String outcome) {
+        for (DocumentProcessingJob job : jobs) {
+            Counter.builder("sectool.worker.jobs.reclaimed")
+                    .description("Jobs taken back from workers whose lease expired")
+                    .tag("stage", job.getStage().name())
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.secfix.todos.worker;
+
+import com.secfix.todos.enums.DocumentType;
+import com.secfix.todos.enums.ProcessingJobStage;
+import com.secfix.todos.services.DocumentProcessingProfile;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.secfix.todos.enums.ProcessingJobStage.*;
+
+/**
+ * Stage dependency graph per document type. A stage is enqueued once every stage it depends on is
+ * DONE, so stages with no path between them (EXTRACT_QUESTIONS and CHUNK/EMBED of a questionnaire)
+ * run in parallel, and FINALIZE waits for all of them. CHUNK and EMBED are only part of the plan
+ * for types the {@link DocumentProcessingProfile} indexes.
+ */
+@Component
+public class StagePlan {
+
+    private final Map<DocumentType, Map<ProcessingJobStage, Set<ProcessingJobStage>>> graphs = new EnumMap<>(DocumentType.class);
+
+    public StagePlan(DocumentProcessingProfile profile) {
+        for (DocumentType type : DocumentType.values()) {
+            Map<ProcessingJobStage, Set<ProcessingJobStage>> graph = new EnumMap<>(ProcessingJobStage.class);
+            Set<ProcessingJobStage> beforeFinalize = EnumSet.noneOf(ProcessingJobStage.class);
+            if (type == DocumentType.QUESTIONNAIRE) {
+                graph.put(EXTRACT_QUESTIONS, EnumSet.of(PARSE));
+                beforeFinalize.add(EXTRACT_QUESTIONS);
+            }
+            if (profile.isIndexed(type)) {
+                graph.put(CHUNK, EnumSet.of(PARSE));
+                graph.put(EMBED, EnumSet.of(CHUNK));
+                beforeFinalize.add(EMBED);
+            }
+            graph.put(FINALIZE, beforeFinalize.isEmpty() ? EnumSet.of(PARSE) : beforeFinalize);
+            graphs.put(type, graph);
+        }
+    }
+
+    public Set<ProcessingJobStage> dependencies(DocumentType type, ProcessingJobStage stage) {
+        return graphs.get(type).getOrDefault(stage, Set.of());
+    }
+
+    /**
+     * Stages that depend directly on {@code stage}.
+     */
+    public List<ProcessingJobStage> successors(DocumentType type, ProcessingJobStage stage) {
+        return graphs.get(type).entrySet().stream()
+                .filter(e -> e.getValue().contains(stage))
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    /**
+     * All stages of the plan in an order that respects the dependencies.
+     */
+    public List<ProcessingJobStage> order(DocumentType type) {
+        Map<ProcessingJobStage, Set<ProcessingJobStage>> graph = graphs.get(type);
+        // enum order is already topological
+        return Arrays.stream(ProcessingJobStage.values())
+                .filter(stage -> stage == PARSE || graph.containsKey(stage))
+                .toList();
+    }
+}
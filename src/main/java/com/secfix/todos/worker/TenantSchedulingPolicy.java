@@ -0,0 +1,81 @@
+package com.secfix.todos.worker;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.UUID;
+
+/**
+ * Per-tenant shares of the processing queue.
+ *
+ * Within a stage, pending jobs are claimed in weighted round-robin order across tenants: a tenant
+ * of weight {@code w} gets {@code w} jobs per round, so a bulk upload of one tenant is interleaved
+ * with other tenants' work instead of running ahead of it. A tenant never has more than its
+ * {@code max-running} jobs of one stage RUNNING across all workers (0 = no cap).
+ *
+ * Overrides use the format {@code <tenant-id>:<value>,...}, e.g.
+ * {@code sectool.worker.tenant.weights=7f3c...:3}.
+ */
+@Component
+public class TenantSchedulingPolicy {
+    private final int defaultWeight;
+    private final int defaultMaxRunning;
+    private final String encoded;
+
+    public TenantSchedulingPolicy(@Value("${sectool.worker.tenant.default-weight:1}") int defaultWeight,
+                                  @Value("${sectool.worker.tenant.default-max-running:0}") int defaultMaxRunning,
+                                  @Value("${sectool.worker.tenant.weights:}") String weights,
+                                  @Value("${sectool.worker.tenant.max-running:}") String maxRunning) {
+        this.defaultWeight = Math.max(1, defaultWeight);
+        this.defaultMaxRunning = cap(defaultMaxRunning);
+        Map<UUID, Integer> weightOverrides = parse("sectool.worker.tenant.weights", weights);
+        Map<UUID, Integer> capOverrides = parse("sectool.worker.tenant.max-running", maxRunning);
+
+        Set<UUID> tenants = new HashSet<>(weightOverrides.keySet());
+        tenants.addAll(capOverrides.keySet());
+        StringJoiner joiner = new StringJoiner(",");
+        for (UUID tenant : tenants) {
+            int weight = Math.max(1, weightOverrides.getOrDefault(tenant, this.defaultWeight));
+            int max = capOverrides.containsKey(tenant) ? cap(capOverrides.get(tenant)) : this.defaultMaxRunning;
+            joiner.add(tenant + ":" + weight + ":" + max);
+        }
+        this.encoded = joiner.toString();
+    }
+
+    public int defaultWeight() {
+        return defaultWeight;
+    }
+
+    public int defaultMaxRunning() {
+        return defaultMaxRunning;
+    }
+
+    /**
+     * Tenant overrides as {@code <tenant-id>:<weight>:<max-running>} entries, as expected by the claim query.
+     */
+    public String encoded() {
+        return encoded;
+    }
+
+    private static int cap(int maxRunning) {
+        return maxRunning <= 0 ? Integer.MAX_VALUE : maxRunning;
+    }
+
+    private static Map<UUID, Integer> parse(String property, String value) {
+        Map<UUID, Integer> result = new HashMap<>();
+        if (value == null || value.isBlank()) return result;
+        for (String entry : value.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid " + property + " entry '" + entry + "', expected <tenant-id>:<value>");
+            }
+            result.put(UUID.fromString(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,217 @@
+package com.secfix.todos.worker;
+
+import com.secfix.todos.database.models.DocumentProcessingJob;
+import com.secfix.todos.enums.ProcessingJobStage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs document processing jobs concurrently on virtual threads.
+ *
+ * A dispatcher thread claims jobs for all stages with free capacity
+ * ({@code sectool.worker.concurrency.<stage>}) in one query, up to {@code sectool.worker.claim-batch-size}
+ * per stage, and repeats while jobs keep coming. It sleeps when nothing could be claimed until it is
+ * woken by a finished local job or a {@link JobNotificationListener} notification, or at the latest
+ * after {@code sectool.worker.poll-interval-ms}. Leases of running jobs are extended by a heartbeat
+ * every third of {@code sectool.worker.lease-ms}; a job whose lease could not be extended is owned
+ * by another worker by now and its thread is interrupted. On shutdown the dispatcher stops claiming and
+ * in-flight jobs are given {@code sectool.worker.shutdown-timeout-ms} to finish.
+ */
+@Component
+public class WorkerEngine implements SmartLifecycle {
+    private static final Logger logger = LoggerFactory.getLogger(WorkerEngine.class);
+
+    private final JobQueue jobQueue;
+    private final DocumentProcessingWorker worker;
+    private final Map<ProcessingJobStage, Semaphore> capacity = new EnumMap<>(ProcessingJobStage.class);
+    private final Semaphore wakeUps = new Semaphore(0);
+    private final String workerId = "worker-" + UUID.randomUUID().toString().substring(0, 8);
+    private final Map<UUID, DocumentProcessingJob> inFlight = new ConcurrentHashMap<>();
+    private final Map<UUID, Thread> jobThreads = new ConcurrentHashMap<>();
+
+    private ExecutorService executor;
+    private Thread dispatcher;
+    private Thread heartbeat;
+    private volatile boolean running;
+
+    @Value("${sectool.worker.enabled:true}")
+    private boolean enabled;
+
+    @Value("${sectool.worker.poll-interval-ms:30000}")
+    private long pollIntervalMs;
+
+    @Value("${sectool.worker.claim-batch-size:16}")
+    private int claimBatchSize;
+
+    @Value("${sectool.worker.shutdown-timeout-ms:30000}")
+    private long shutdownTimeoutMs;
+
+    public WorkerEngine(JobQueue jobQueue, DocumentProcessingWorker worker, Environment environment) {
+        this.jobQueue = jobQueue;
+        this.worker = worker;
+        int defaultConcurrency = environment.getProperty("sectool.worker.concurrency.default", Integer.class, 2);
+        for (ProcessingJobStage stage : ProcessingJobStage.values()) {
+            int permits = environment.getProperty("sectool.worker.concurrency." + propertyName(stage),
+                    Integer.class, defaultConcurrency);
+            capacity.put(stage, new Semaphore(Math.max(1, permits)));
+        }
+    }
+
+    public String workerId() {
+        return workerId;
+    }
+
+    /**
+     * Makes the dispatcher look for work now instead of after the poll interval.
+     */
+    public void wakeUp() {
+        wakeUps.release();
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            logger.info("Document processing worker is disabled");
+            return;
+        }
+        running = true;
+        executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("job-", 0).factory());
+        dispatcher = Thread.ofPlatform().name("job-dispatcher").daemon().start(this::dispatch);
+        heartbeat = Thread.ofVirtual().name("job-heartbeat").start(this::heartbeat);
+        logger.info("Worker {} started, concurrency per stage: {}", workerId, capacitySummary());
+    }
+
+    @Override
+    public void stop() {
+        if (!running) return;
+        running = false;
+        wakeUp();
+        try {
+            dispatcher.join(pollIntervalMs);
+            executor.shutdown();
+            if (!executor.awaitTermination(shutdownTimeoutMs, TimeUnit.MILLISECONDS)) {
+                logger.warn("Worker {} stopped with jobs still running; they will be retried", workerId);
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+        heartbeat.interrupt();
+        logger.info("Worker {} stopped", workerId);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void dispatch() {
+        while (running) {
+            wakeUps.drainPermits();
+            if (claimBatch()) continue;
+            try {
+                wakeUps.tryAcquire(pollIntervalMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reserves the free capacity of every stage, claims that many jobs in one query and returns the
+     * unused reservations. Returns whether any job was claimed.
+     */
+    private boolean claimBatch() {
+        Map<ProcessingJobStage, Integer> slots = new EnumMap<>(ProcessingJobStage.class);
+        capacity.forEach((stage, permits) -> {
+            int free = permits.drainPermits();
+            int reserved = Math.min(free, claimBatchSize);
+            if (free > reserved) permits.release(free - reserved);
+            if (reserved > 0) slots.put(stage, reserved);
+        });
+        if (slots.isEmpty()) return false;
+
+        List<DocumentProcessingJob> jobs;
+        try {
+            jobs = jobQueue.claim(slots, workerId);
+        } catch (Exception e) {
+            logger.error("Claiming jobs failed", e);
+            jobs = List.of();
+        }
+        for (DocumentProcessingJob job : jobs) {
+            slots.merge(job.getStage(), -1, Integer::sum);
+            Semaphore permits = capacity.get(job.getStage());
+            inFlight.put(job.getId(), job);
+            executor.execute(() -> {
+                jobThreads.put(job.getId(), Thread.currentThread());
+                try {
+                    worker.process(job);
+                } finally {
+                    jobThreads.remove(job.getId());
+                    inFlight.remove(job.getId());
+                    permits.release();
+                    wakeUp();
+                }
+            });
+        }
+        slots.forEach((stage, unused) -> {
+            if (unused > 0) capacity.get(stage).release(unused);
+        });
+        return !jobs.isEmpty();
+    }
+
+    /**
+     * Extends the leases of running jobs every third of the lease duration, until in-flight jobs
+     * have drained after shutdown.
+     */
+    private void heartbeat() {
+        long interval = Math.max(1_000, jobQueue.leaseMs() / 3);
+        while (running || !executor.isTerminated()) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            Set<UUID> ids = Set.copyOf(inFlight.keySet());
+            try {
+                Set<UUID> held = jobQueue.heartbeat(ids, workerId);
+                for (UUID id : ids) {
+                    if (!held.contains(id) && inFlight.containsKey(id)) {
+                        logger.warn("Worker {} lost the lease on job {}; cancelling it", workerId, id);
+                        Thread thread = jobThreads.get(id);
+                        if (thread != null) thread.interrupt();
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("Extending job leases failed", e);
+            }
+        }
+    }
+
+    private String capacitySummary() {
+        StringBuilder sb = new StringBuilder();
+        capacity.forEach((stage, permits) -> sb.append(stage).append('=').append(permits.availablePermits()).append(' '));
+        return sb.toString().trim();
+    }
+
+    private static String propertyName(ProcessingJobStage stage) {
+        return stage.name().toLowerCase().replace('_', '-');
+    }
+}
@@ -0,0 +1,215 @@
+package com.secfix.todos.services;
+
+import com.secfix.todos.database.models.LlmBatchJob;
+import com.secfix.todos.database.models.QuestionnaireItem;
+import com.secfix.todos.database.repositories.LlmBatchJobRepository;
+import com.secfix.todos.database.repositories.QuestionnaireItemRepository;
+import com.secfix.todos.enums.CoverageStatus;
+import com.secfix.todos.enums.LlmBatchJobStatus;
+import com.secfix.todos.enums.QuestionnaireItemState;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Bulk answering jobs against a real PostgreSQL: the preparation claim and the completion of a
+ * batch are conditional updates that decide which instance does the work.
+ */
+@DataJpaTest(properties = "sectool.llm.batch.max-attempts=3")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import(BulkAnsweringService.class)
+class BulkAnsweringServiceTests {
+
+    private static final EmbeddedPostgres POSTGRES = startPostgres();
+    private static final RagService.SuggestionResult ANSWER =
+            new RagService.SuggestionResult("Yes.", List.of(), 0.9, CoverageStatus.OK);
+
+    @Autowired
+    private BulkAnsweringService bulkAnswering;
+    @Autowired
+    private LlmBatchJobRepository batchJobRepo;
+    @Autowired
+    private QuestionnaireItemRepository itemRepo;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @MockBean
+    private RagService ragService;
+    @MockBean
+    private QuestionnairesService questionnairesService;
+    @MockBean
+    private LlmClient llmClient;
+    @MockBean
+    private ModelWarmUpService modelWarmUp;
+
+    private final UUID tenant = UUID.randomUUID();
+    private final UUID questionnaire = UUID.randomUUID();
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> POSTGRES.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "");
+    }
+
+    private static EmbeddedPostgres startPostgres() {
+        try {
+            return EmbeddedPostgres.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @BeforeEach
+    void clearJobs() {
+        batchJobRepo.deleteAll();
+        itemRepo.deleteAll();
+        when(ragService.toSuggestionResult(anyString(), anyList(), anyDouble())).thenReturn(ANSWER);
+        when(questionnairesService.recordSuggestionIfUnanswered(any(), any(), any())).thenReturn(true);
+    }
+
+    @Test
+    void preparationSubmitsTheBatchWhileItHoldsTheClaim() {
+        unansweredItems(2);
+        LlmBatchJob job = preparingJob();
+        when(ragService.prepare(anyString(), eq(tenant))).thenReturn(prompt());
+        when(llmClient.submitBatch(anyList())).thenReturn("batch-1");
+
+        bulkAnswering.prepareQueuedJobs();
+
+        verify(llmClient, timeout(5000)).submitBatch(argThat(prompts -> prompts.size() == 2));
+        assertEquals(LlmBatchJobStatus.SUBMITTED, awaitStatusChange(job, LlmBatchJobStatus.PREPARING));
+    }
+
+    @Test
+    void preparationStopsOnceAnotherInstanceTookTheJobOver() {
+        unansweredItems(2);
+        LlmBatchJob job = preparingJob();
+        when(ragService.prepare(anyString(), eq(tenant))).thenAnswer(invocation -> {
+            // another instance claims the job while this one is still retrieving
+            jdbcTemplate.update("UPDATE llm_batch_job SET prepare_started_at = now() + interval '1 second' WHERE id = ?",
+                    job.getId());
+            return prompt();
+        });
+
+        bulkAnswering.prepareQueuedJobs();
+
+        verify(ragService, timeout(5000)).prepare(anyString(), eq(tenant));
+        verify(llmClient, after(1000).never()).submitBatch(anyList());
+        assertEquals(LlmBatchJobStatus.PREPARING, batchJobRepo.findById(job.getId()).orElseThrow().getStatus());
+    }
+
+    @Test
+    void itemsTheProviderFailedOnAreQueuedAsAFollowUpJob() {
+        UUID answered = UUID.randomUUID();
+        UUID errored = UUID.randomUUID();
+        LlmBatchJob job = submittedJob(1, answered, errored);
+        when(llmClient.getBatch("batch-1")).thenReturn(new LlmClient.BatchStatus("batch-1", true,
+                Map.of(answered.toString(), "Yes."), Map.of(errored.toString(), "overloaded_error")));
+
+        bulkAnswering.pollSubmittedBatches();
+
+        LlmBatchJob completed = batchJobRepo.findById(job.getId()).orElseThrow();
+        assertEquals(LlmBatchJobStatus.COMPLETED, completed.getStatus());
+        assertEquals(1, completed.getCompletedCount());
+        assertEquals(1, completed.getFailedCount());
+        List<LlmBatchJob> followUps = batchJobRepo.findByStatus(LlmBatchJobStatus.PREPARING);
+        assertEquals(1, followUps.size());
+        assertEquals(2, followUps.getFirst().getAttempt());
+        assertEquals(1, followUps.getFirst().getItemCount());
+    }
+
+    @Test
+    void failedItemsAreLeftUnansweredAfterTheLastAttempt() {
+        UUID errored = UUID.randomUUID();
+        LlmBatchJob job = submittedJob(3, errored);
+        when(llmClient.getBatch("batch-1")).thenReturn(new LlmClient.BatchStatus("batch-1", true,
+                Map.of(), Map.of(errored.toString(), "overloaded_error")));
+
+        bulkAnswering.pollSubmittedBatches();
+
+        assertEquals(1, batchJobRepo.findById(job.getId()).orElseThrow().getFailedCount());
+        assertTrue(batchJobRepo.findByStatus(LlmBatchJobStatus.PREPARING).isEmpty());
+    }
+
+    private void unansweredItems(int count) {
+        for (int i = 0; i < count; i++) {
+            QuestionnaireItem item = new QuestionnaireItem();
+            item.setTenantId(tenant);
+            item.setQuestionnaireId(questionnaire);
+            item.setItemIndex(i);
+            item.setQuestionText("Question " + i + "?");
+            item.setCurrentState(QuestionnaireItemState.UNANSWERED);
+            itemRepo.save(item);
+        }
+    }
+
+    private LlmBatchJob preparingJob() {
+        LlmBatchJob job = new LlmBatchJob();
+        job.setTenantId(tenant);
+        job.setQuestionnaireId(questionnaire);
+        job.setStatus(LlmBatchJobStatus.PREPARING);
+        return batchJobRepo.save(job);
+    }
+
+    private LlmBatchJob submittedJob(int attempt, UUID... itemIds) {
+        StringBuilder items = new StringBuilder("[");
+        for (UUID itemId : itemIds) {
+            if (items.length() > 1) items.append(',');
+            items.append("{\"itemId\":\"").append(itemId).append("\",\"citations\":[],\"topScore\":0.8}");
+        }
+        LlmBatchJob job = new LlmBatchJob();
+        job.setTenantId(tenant);
+        job.setQuestionnaireId(questionnaire);
+        job.setStatus(LlmBatchJobStatus.SUBMITTED);
+        job.setProviderBatchId("batch-1");
+        job.setItemCount(itemIds.length);
+        job.setAttempt(attempt);
+        job.setItems(items.append(']').toString());
+        return batchJobRepo.save(job);
+    }
+
+    private static RagService.PreparedSuggestion prompt() {
+        return new RagService.PreparedSuggestion(null, "system", "user", List.of(), 0.8);
+    }
+
+    private LlmBatchJobStatus awaitStatusChange(LlmBatchJob job, LlmBatchJobStatus from) {
+        long deadline = System.currentTimeMillis() + 5000;
+        LlmBatchJobStatus status;
+        do {
+            status = batchJobRepo.findById(job.getId()).orElseThrow().getStatus();
+        } while (status == from && System.currentTimeMillis() < deadline);
+        return status;
+    }
+}
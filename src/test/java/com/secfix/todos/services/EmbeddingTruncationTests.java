@@ -0,0 +1,113 @@
+package com.secfix.todos.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Truncation contract and a small recall benchmark over a synthetic policy-like corpus: recall@k of
+ * truncated vectors must stay close to full width. The local hashing model is not Matryoshka-trained,
+ * so this is a pessimistic bound for real providers.
+ */
+class EmbeddingTruncationTests {
+
+    private static final String[] VOCABULARY = ("access control encryption key rotation backup restore incident response "
+            + "vendor risk assessment audit logging monitoring password policy multi factor authentication network "
+            + "firewall segmentation vulnerability scanning patch management employee training background check "
+            + "data retention deletion classification confidential customer production change approval review "
+            + "disaster recovery business continuity penetration test annual quarterly monthly laptop device endpoint "
+            + "antivirus cloud provider region availability least privilege role onboarding offboarding").split(" ");
+    private static final int FULL_DIMENSIONS = 1024;
+    private static final int TOP_K = 10;
+
+    @Test
+    void truncatedVectorsAreNormalizedPrefixes() {
+        EmbeddingsClient full = new LocalHashingEmbeddingsClient(FULL_DIMENSIONS, 42);
+        TruncatingEmbeddingsClient truncated = new TruncatingEmbeddingsClient(full, 256);
+
+        float[] original = full.embed(List.of("encryption key rotation")).getFirst();
+        float[] prefix = truncated.embed(List.of("encryption key rotation")).getFirst();
+
+        assertEquals(256, prefix.length);
+        assertEquals(256, truncated.dimensions());
+        assertEquals("local-hash-v1@256", truncated.modelId());
+        assertEquals(1.0, norm(prefix), 1e-4);
+        double scale = 1.0 / norm(Arrays.copyOf(original, 256));
+        for (int i = 0; i < prefix.length; i++) {
+            assertEquals(original[i] * scale, prefix[i], 1e-5);
+        }
+        assertTrue(EmbeddingCodec.isZero(TruncatingEmbeddingsClient.truncate(new float[FULL_DIMENSIONS], 256)));
+    }
+
+    @Test
+    void recallAgainstFullWidth() {
+        Random random = new Random(7);
+        List<List<String>> documents = IntStream.range(0, 400).mapToObj(i -> words(random, 30)).toList();
+        List<String> corpus = documents.stream().map(d -> String.join(" ", d)).toList();
+        // each query paraphrases one document by sampling a few of its words; that document is the relevant hit
+        List<Integer> sources = IntStream.range(0, 100).mapToObj(i -> random.nextInt(documents.size())).toList();
+        List<String> queries = sources.stream().map(j -> sample(random, documents.get(j), 8)).toList();
+
+        EmbeddingsClient full = new LocalHashingEmbeddingsClient(FULL_DIMENSIONS, 42);
+        List<float[]> corpusVectors = full.embed(corpus);
+        List<float[]> queryVectors = full.embed(queries);
+        double fullRecall = recall(queryVectors, corpusVectors, sources, FULL_DIMENSIONS);
+
+        for (int dims : new int[] {512, 256}) {
+            List<float[]> truncatedCorpus = corpusVectors.stream().map(v -> TruncatingEmbeddingsClient.truncate(v, dims)).toList();
+            List<float[]> truncatedQueries = queryVectors.stream().map(v -> TruncatingEmbeddingsClient.truncate(v, dims)).toList();
+            double truncatedRecall = recall(truncatedQueries, truncatedCorpus, sources, dims);
+            assertTrue(truncatedRecall >= fullRecall - 0.1,
+                    "recall@" + TOP_K + " dropped from " + fullRecall + " to " + truncatedRecall + " at " + dims + " dims");
+        }
+    }
+
+    private static double recall(List<float[]> queries, List<float[]> corpus, List<Integer> sources, int dims) {
+        int hits = 0;
+        for (int q = 0; q < queries.size(); q++) {
+            if (topK(queries.get(q), corpus, dims).contains(sources.get(q))) hits++;
+        }
+        return (double) hits / queries.size();
+    }
+
+    private static Set<Integer> topK(float[] query, List<float[]> vectors, int dims) {
+        List<Integer> ids = new ArrayList<>(IntStream.range(0, vectors.size()).boxed().toList());
+        ids.sort(Comparator.comparingDouble((Integer i) -> dot(query, vectors.get(i), dims)).reversed());
+        return new HashSet<>(ids.subList(0, TOP_K));
+    }
+
+    private static List<String> words(Random random, int count) {
+        List<String> words = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            words.add(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+        }
+        return words;
+    }
+
+    private static String sample(Random random, List<String> words, int count) {
+        List<String> shuffled = new ArrayList<>(words);
+        Collections.shuffle(shuffled, random);
+        return String.join(" ", shuffled.subList(0, count));
+    }
+
+    private static double dot(float[] a, float[] b, int dims) {
+        double sum = 0;
+        for (int i = 0; i < dims; i++) sum += a[i] * b[i];
+        return sum;
+    }
+
+    private static double norm(float[] v) {
+        return Math.sqrt(dot(v, v, v.length));
+    }
+}
@@ -0,0 +1,182 @@
+package com.secfix.todos.services;
+
+import com.secfix.todos.http.OutboundHttpClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hedging and failover between two Anthropic clients talking to a local stub server, one path per
+ * provider.
+ */
+class HedgingLlmClientTests {
+
+    private static final HedgingLlmClient.Settings SETTINGS = new HedgingLlmClient.Settings(
+            true, 0.95, Duration.ofMillis(50), Duration.ofMillis(200), 3, Duration.ofMinutes(1));
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CountDownLatch releaseSlowCalls = new CountDownLatch(1);
+    private final AtomicInteger primaryCalls = new AtomicInteger();
+    private final AtomicInteger secondaryCalls = new AtomicInteger();
+    private HttpServer server;
+    private String baseUrl;
+    private HedgingLlmClient client;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopServer() {
+        releaseSlowCalls.countDown();
+        if (client != null) client.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    void slowPrimaryIsHedgedBySecondary() {
+        stub("primary", primaryCalls, slow("late primary answer"));
+        stub("secondary", secondaryCalls, answer("secondary answer"));
+
+        long start = System.nanoTime();
+        String answer = hedging().completeOrThrow("system", "Do you encrypt data at rest?");
+
+        assertEquals("secondary answer", answer);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5_000);
+        assertEquals(1, secondaryCalls.get());
+        assertEquals(1.0, meterRegistry.get("sectool.llm.hedge.won").counter().count());
+    }
+
+    @Test
+    void failedPrimaryFailsOverToSecondary() {
+        stub("primary", primaryCalls, exchange -> respond(exchange, 500, "{\"error\":{\"message\":\"overloaded\"}}"));
+        stub("secondary", secondaryCalls, answer("secondary answer"));
+
+        String answer = hedging().completeOrThrow("system", "Do you encrypt data at rest?");
+
+        assertEquals("secondary answer", answer);
+        assertEquals(1, primaryCalls.get());
+        assertEquals(1, secondaryCalls.get());
+        assertEquals(1.0, meterRegistry.get("sectool.llm.failover").counter().count());
+        assertEquals(0.0, meterRegistry.get("sectool.llm.hedge.sent").counter().count());
+    }
+
+    @Test
+    void losingCallIsCancelled() throws Exception {
+        stub("primary", primaryCalls, slow("late primary answer"));
+        stub("secondary", secondaryCalls, answer("secondary answer"));
+
+        assertEquals("secondary answer", hedging().completeOrThrow("system", "Do you encrypt data at rest?"));
+
+        // the primary's HTTP exchange is interrupted instead of waiting for the stub's response
+        assertEquals(1, awaitCancelled("llm"));
+        assertEquals(1, primaryCalls.get());
+    }
+
+    @Test
+    void hedgedSecondaryIsCancelledWhenPrimaryAnswersFirst() throws Exception {
+        stub("primary", primaryCalls, exchange -> {
+            sleep(400);
+            respond(exchange, 200, message("primary answer"));
+        });
+        stub("secondary", secondaryCalls, slow("late secondary answer"));
+
+        assertEquals("primary answer", hedging().completeOrThrow("system", "Do you encrypt data at rest?"));
+
+        assertEquals(1.0, meterRegistry.get("sectool.llm.hedge.sent").counter().count());
+        assertEquals(0.0, meterRegistry.get("sectool.llm.hedge.won").counter().count());
+        assertEquals(1, awaitCancelled("llm-secondary"));
+    }
+
+    private HedgingLlmClient hedging() {
+        client = new HedgingLlmClient(anthropic("llm", "primary"), anthropic("llm-secondary", "secondary"),
+                SETTINGS, meterRegistry);
+        return client;
+    }
+
+    private AnthropicLlmClient anthropic(String integration, String path) {
+        OutboundHttpClient httpClient = new OutboundHttpClient(integration,
+                new OutboundHttpClient.Settings(Duration.ofSeconds(2), Duration.ofSeconds(10), 4, false),
+                Executors.newVirtualThreadPerTaskExecutor(), meterRegistry);
+        return new AnthropicLlmClient(httpClient, baseUrl + "/" + path, "test-key", "claude-test");
+    }
+
+    private void stub(String path, AtomicInteger calls, HttpHandler handler) {
+        server.createContext("/" + path + "/v1/messages", exchange -> {
+            calls.incrementAndGet();
+            exchange.getRequestBody().readAllBytes();
+            handler.handle(exchange);
+        });
+    }
+
+    private HttpHandler answer(String text) {
+        return exchange -> respond(exchange, 200, message(text));
+    }
+
+    /**
+     * Answers only once the test is over, unless the client gives up first.
+     */
+    private HttpHandler slow(String text) {
+        return exchange -> {
+            try {
+                releaseSlowCalls.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, message(text));
+        };
+    }
+
+    private long awaitCancelled(String integration) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (System.currentTimeMillis() < deadline) {
+            Timer cancelled = meterRegistry.find("sectool.http.client.requests")
+                    .tags("integration", integration, "outcome", "CANCELLED")
+                    .timer();
+            if (cancelled != null) return cancelled.count();
+            Thread.sleep(20);
+        }
+        return 0;
+    }
+
+    private static String message(String text) {
+        return "{\"content\":[{\"type\":\"text\",\"text\":\"" + text + "\"}]}";
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+}
@@ -0,0 +1,148 @@
+package com.secfix.todos.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.secfix.todos.http.OutboundHttpClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Batch round trips against a local stub of the Anthropic and OpenAI batch endpoints.
+ */
+class LlmBatchClientTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private HttpServer server;
+    private String baseUrl;
+    private OutboundHttpClient httpClient;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        httpClient = new OutboundHttpClient("llm",
+                new OutboundHttpClient.Settings(Duration.ofSeconds(2), Duration.ofSeconds(5), 4, false),
+                Executors.newVirtualThreadPerTaskExecutor(), new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void anthropicBatchRoundTrip() throws Exception {
+        AtomicReference<JsonNode> submitted = new AtomicReference<>();
+        AtomicInteger polls = new AtomicInteger();
+        server.createContext("/v1/messages/batches", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            if (exchange.getRequestMethod().equals("POST")) {
+                submitted.set(objectMapper.readTree(exchange.getRequestBody()));
+                respond(exchange, "{\"id\":\"msgbatch_1\",\"processing_status\":\"in_progress\"}");
+            } else if (path.endsWith("/results")) {
+                List<String> lines = new ArrayList<>();
+                for (JsonNode req : submitted.get().path("requests")) {
+                    String id = req.path("custom_id").asText();
+                    lines.add(id.equals("item-2")
+                            ? "{\"custom_id\":\"item-2\",\"result\":{\"type\":\"errored\",\"error\":{\"type\":\"error\",\"error\":{\"message\":\"overloaded\"}}}}"
+                            : "{\"custom_id\":\"" + id + "\",\"result\":{\"type\":\"succeeded\",\"message\":{\"content\":[{\"type\":\"text\",\"text\":\"Yes, " + id + "\"}]}}}");
+                }
+                respond(exchange, String.join("\n", lines));
+            } else if (polls.incrementAndGet() == 1) {
+                respond(exchange, "{\"id\":\"msgbatch_1\",\"processing_status\":\"in_progress\"}");
+            } else {
+                respond(exchange, "{\"id\":\"msgbatch_1\",\"processing_status\":\"ended\",\"results_url\":\""
+                        + baseUrl + "/v1/messages/batches/msgbatch_1/results\"}");
+            }
+        });
+
+        AnthropicLlmClient client = new AnthropicLlmClient(httpClient, baseUrl, "test-key", "claude-test");
+        String batchId = client.submitBatch(prompts());
+
+        assertEquals("msgbatch_1", batchId);
+        assertEquals(3, submitted.get().path("requests").size());
+        assertEquals("claude-test", submitted.get().path("requests").path(0).path("params").path("model").asText());
+        assertFalse(client.getBatch(batchId).ended());
+
+        LlmClient.BatchStatus status = client.getBatch(batchId);
+        assertTrue(status.ended());
+        assertEquals("Yes, item-1", status.answers().get("item-1"));
+        assertEquals("Yes, item-3", status.answers().get("item-3"));
+        assertTrue(status.errors().get("item-2").contains("overloaded"));
+    }
+
+    @Test
+    void openAiBatchRoundTrip() throws Exception {
+        AtomicReference<String> uploadedFile = new AtomicReference<>();
+        AtomicReference<JsonNode> createdBatch = new AtomicReference<>();
+        server.createContext("/v1/files", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            if (exchange.getRequestMethod().equals("POST")) {
+                uploadedFile.set(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+                respond(exchange, "{\"id\":\"file-in\"}");
+            } else if (path.equals("/v1/files/file-out/content")) {
+                respond(exchange, "{\"custom_id\":\"item-1\",\"response\":{\"status_code\":200,\"body\":{\"choices\":[{\"message\":{\"content\":\"Yes, item-1\"}}]}}}\n"
+                        + "{\"custom_id\":\"item-3\",\"response\":{\"status_code\":200,\"body\":{\"choices\":[{\"message\":{\"content\":\"Yes, item-3\"}}]}}}\n");
+            } else {
+                respond(exchange, "{\"custom_id\":\"item-2\",\"response\":{\"status_code\":429,\"body\":{\"error\":{\"message\":\"rate limited\"}}}}\n");
+            }
+        });
+        server.createContext("/v1/batches", exchange -> {
+            if (exchange.getRequestMethod().equals("POST")) {
+                createdBatch.set(objectMapper.readTree(exchange.getRequestBody()));
+                respond(exchange, "{\"id\":\"batch_1\",\"status\":\"validating\"}");
+            } else {
+                respond(exchange, "{\"id\":\"batch_1\",\"status\":\"completed\",\"output_file_id\":\"file-out\",\"error_file_id\":\"file-err\"}");
+            }
+        });
+
+        OpenAiLlmClient client = new OpenAiLlmClient(httpClient, baseUrl, "test-key", "gpt-test");
+        String batchId = client.submitBatch(prompts());
+
+        assertEquals("batch_1", batchId);
+        assertEquals("file-in", createdBatch.get().path("input_file_id").asText());
+        assertTrue(uploadedFile.get().contains("name=\"purpose\""));
+        assertEquals(3, uploadedFile.get().lines().filter(l -> l.contains("\"custom_id\"")).count());
+
+        LlmClient.BatchStatus status = client.getBatch(batchId);
+        assertTrue(status.ended());
+        assertEquals("Yes, item-1", status.answers().get("item-1"));
+        assertEquals("Yes, item-3", status.answers().get("item-3"));
+        assertEquals("rate limited", status.errors().get("item-2"));
+    }
+
+    private List<LlmClient.BatchPrompt> prompts() {
+        return List.of(
+                new LlmClient.BatchPrompt("item-1", "system", "Do you encrypt data at rest?"),
+                new LlmClient.BatchPrompt("item-2", "system", "Do you run background checks?"),
+                new LlmClient.BatchPrompt("item-3", "system", "Do you have an incident response plan?"));
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+}
@@ -0,0 +1,296 @@
+package com.secfix.todos.services;
+
+import com.secfix.todos.database.models.Document;
+import com.secfix.todos.database.models.DocumentVersion;
+import com.secfix.todos.database.models.KbChunk;
+import com.secfix.todos.database.models.KbEmbedding;
+import com.secfix.todos.database.models.Tenant;
+import com.secfix.todos.database.repositories.DocumentRepository;
+import com.secfix.todos.database.repositories.DocumentVersionRepository;
+import com.secfix.todos.database.repositories.KbChunkRepository;
+import com.secfix.todos.database.repositories.KbEmbeddingRepository;
+import com.secfix.todos.database.repositories.TenantRepository;
+import com.secfix.todos.enums.DocumentType;
+import com.secfix.todos.enums.DocumentVersionStatus;
+import com.secfix.todos.enums.EmbeddingStatus;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Coalescing of concurrent suggest calls against a real PostgreSQL knowledge base, with an LLM
+ * stub that holds every call until the test releases it.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import({RagService.class, DocumentProcessingProfile.class, RagServiceTests.Clients.class})
+class RagServiceTests {
+
+    private static final String MODEL = "test-model";
+    private static final String QUESTION = "Do you encrypt data at rest?";
+    private static final EmbeddedPostgres POSTGRES = startPostgres();
+
+    @Autowired
+    private RagService ragService;
+    @Autowired
+    private BlockingLlm llm;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private TenantRepository tenantRepo;
+    @Autowired
+    private DocumentRepository documentRepo;
+    @Autowired
+    private DocumentVersionRepository versionRepo;
+    @Autowired
+    private KbChunkRepository chunkRepo;
+    @Autowired
+    private KbEmbeddingRepository embeddingRepo;
+
+    private final ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor();
+    private double coalescedBefore;
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> POSTGRES.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "");
+    }
+
+    private static EmbeddedPostgres startPostgres() {
+        try {
+            return EmbeddedPostgres.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @TestConfiguration
+    static class Clients {
+        @Bean
+        BlockingLlm llmClient() {
+            return new BlockingLlm();
+        }
+
+        @Bean
+        EmbeddingModelRegistry embeddingModelRegistry() {
+            EmbeddingsClient embeddings = new EmbeddingsClient() {
+                @Override
+                public List<float[]> embed(List<String> texts) {
+                    return texts.stream().map(t -> new float[]{1f, 0f}).toList();
+                }
+
+                @Override
+                public int dimensions() {
+                    return 2;
+                }
+
+                @Override
+                public String modelId() {
+                    return MODEL;
+                }
+            };
+            return new EmbeddingModelRegistry(embeddings, null);
+        }
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    /**
+     * Counts calls and answers each once {@link #release} is opened; the first {@code failures}
+     * calls throw instead.
+     */
+    static class BlockingLlm implements LlmClient {
+        final AtomicInteger calls = new AtomicInteger();
+        volatile CountDownLatch release = new CountDownLatch(1);
+        volatile int failures;
+
+        @Override
+        public String completeOrThrow(String systemPrompt, String userPrompt) {
+            int call = calls.incrementAndGet();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (call <= failures) throw new IllegalStateException("provider connection reset");
+            return "Yes, answer " + call;
+        }
+    }
+
+    @BeforeEach
+    void clearKnowledgeBase() {
+        embeddingRepo.deleteAll();
+        chunkRepo.deleteAll();
+        versionRepo.deleteAll();
+        documentRepo.deleteAll();
+        tenantRepo.deleteAll();
+        llm.calls.set(0);
+        llm.release = new CountDownLatch(1);
+        llm.failures = 0;
+        coalescedBefore = meterRegistry.get("sectool.rag.suggest.coalesced").counter().count();
+    }
+
+    @AfterEach
+    void releaseCalls() {
+        llm.release.countDown();
+        callers.shutdownNow();
+    }
+
+    @Test
+    void identicalConcurrentCallsShareOneLlmCall() throws Exception {
+        UUID tenant = tenantWithPolicy();
+
+        List<CompletableFuture<RagService.SuggestionResult>> calls = List.of(
+                suggestAsync(QUESTION, tenant),
+                suggestAsync("  do you ENCRYPT data   at rest? ", tenant),
+                suggestAsync(QUESTION, tenant));
+        awaitValue(() -> (int) coalesced(), 2);
+        llm.release.countDown();
+
+        for (CompletableFuture<RagService.SuggestionResult> call : calls) {
+            assertEquals("Yes, answer 1", call.get(5, TimeUnit.SECONDS).answerText());
+        }
+        assertEquals(1, llm.calls.get());
+    }
+
+    @Test
+    void differentTenantsDoNotShareAResult() throws Exception {
+        UUID first = tenantWithPolicy();
+        UUID second = tenantWithPolicy();
+
+        CompletableFuture<RagService.SuggestionResult> firstCall = suggestAsync(QUESTION, first);
+        CompletableFuture<RagService.SuggestionResult> secondCall = suggestAsync(QUESTION, second);
+        awaitValue(llm.calls::get, 2);
+        llm.release.countDown();
+
+        firstCall.get(5, TimeUnit.SECONDS);
+        secondCall.get(5, TimeUnit.SECONDS);
+        assertEquals(2, llm.calls.get());
+        assertEquals(0.0, coalesced());
+    }
+
+    @Test
+    void callAfterTheKnowledgeBaseChangedDoesNotAttachToTheOlderComputation() throws Exception {
+        UUID tenant = tenantWithPolicy();
+
+        CompletableFuture<RagService.SuggestionResult> before = suggestAsync(QUESTION, tenant);
+        awaitValue(llm.calls::get, 1);
+        // a document finished processing while the first call was waiting for the LLM
+        policyChunk(tenant);
+        CompletableFuture<RagService.SuggestionResult> after = suggestAsync(QUESTION, tenant);
+        awaitValue(llm.calls::get, 2);
+        llm.release.countDown();
+
+        before.get(5, TimeUnit.SECONDS);
+        after.get(5, TimeUnit.SECONDS);
+        assertEquals(0.0, coalesced());
+    }
+
+    @Test
+    void failureIsSharedInFlightButNotCachedForLaterCalls() throws Exception {
+        UUID tenant = tenantWithPolicy();
+        llm.failures = 1;
+
+        CompletableFuture<RagService.SuggestionResult> first = suggestAsync(QUESTION, tenant);
+        CompletableFuture<RagService.SuggestionResult> attached = suggestAsync(QUESTION, tenant);
+        awaitValue(() -> (int) coalesced(), 1);
+        llm.release.countDown();
+
+        for (CompletableFuture<RagService.SuggestionResult> call : List.of(first, attached)) {
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> call.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, failure.getCause());
+        }
+        assertEquals("Yes, answer 2", ragService.suggest(QUESTION, tenant).answerText());
+        assertEquals(2, llm.calls.get());
+    }
+
+    private CompletableFuture<RagService.SuggestionResult> suggestAsync(String question, UUID tenant) {
+        return CompletableFuture.supplyAsync(() -> ragService.suggest(question, tenant), callers);
+    }
+
+    private double coalesced() {
+        return meterRegistry.get("sectool.rag.suggest.coalesced").counter().count() - coalescedBefore;
+    }
+
+    private static void awaitValue(IntSupplier value, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (value.getAsInt() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, value.getAsInt());
+    }
+
+    private UUID tenantWithPolicy() {
+        Tenant tenant = new Tenant();
+        tenant.setName("Tenant");
+        tenant.setSlug("tenant-" + UUID.randomUUID());
+        tenant.setActiveEmbeddingModel(MODEL);
+        UUID tenantId = tenantRepo.save(tenant).getId();
+        policyChunk(tenantId);
+        return tenantId;
+    }
+
+    private void policyChunk(UUID tenant) {
+        Document document = new Document();
+        document.setTenantId(tenant);
+        document.setType(DocumentType.POLICY);
+        document = documentRepo.save(document);
+
+        DocumentVersion version = new DocumentVersion();
+        version.setTenantId(tenant);
+        version.setDocumentId(document.getId());
+        version.setVersionNum(1);
+        version.setStatus(DocumentVersionStatus.READY);
+        version = versionRepo.save(version);
+
+        KbChunk chunk = new KbChunk();
+        chunk.setTenantId(tenant);
+        chunk.setDocumentVersionId(version.getId());
+        chunk.setChunkIndex(0);
+        chunk.setText("Customer data is encrypted at rest with AES-256.");
+        chunk.setEmbeddingStatus(EmbeddingStatus.EMBEDDED);
+        chunk = chunkRepo.save(chunk);
+
+        KbEmbedding embedding = new KbEmbedding();
+        embedding.setTenantId(tenant);
+        embedding.setChunkId(chunk.getId());
+        embedding.setEmbeddingModel(MODEL);
+        embedding.setEmbedding(EmbeddingCodec.serialize(new float[]{1f, 0f}));
+        embeddingRepo.save(embedding);
+    }
+}
@@ -0,0 +1,219 @@
+package com.secfix.todos.worker;
+
+import com.secfix.todos.database.models.DocumentVersion;
+import com.secfix.todos.database.models.KbChunk;
+import com.secfix.todos.database.models.KbEmbedding;
+import com.secfix.todos.database.models.Tenant;
+import com.secfix.todos.database.repositories.DocumentVersionRepository;
+import com.secfix.todos.database.repositories.EmbeddingCacheRepository;
+import com.secfix.todos.database.repositories.KbChunkRepository;
+import com.secfix.todos.database.repositories.KbEmbeddingRepository;
+import com.secfix.todos.database.repositories.TenantRepository;
+import com.secfix.todos.enums.DocumentVersionStatus;
+import com.secfix.todos.enums.EmbeddingStatus;
+import com.secfix.todos.services.ChunkEmbeddingService;
+import com.secfix.todos.services.EmbeddingCacheService;
+import com.secfix.todos.services.EmbeddingCodec;
+import com.secfix.todos.services.EmbeddingModelRegistry;
+import com.secfix.todos.services.EmbeddingsClient;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Re-embedding a tenant with a new model against a real PostgreSQL: chunks uploaded meanwhile
+ * and chunks the new model cannot embed must stay retrievable throughout.
+ */
+@DataJpaTest(properties = "sectool.embeddings.repair-max-attempts=2")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import({EmbeddingReembedJob.class, ChunkEmbeddingService.class, EmbeddingCacheService.class, ClusterLock.class,
+        EmbeddingReembedJobTests.Models.class})
+class EmbeddingReembedJobTests {
+
+    private static final String OLD_MODEL = "old-model";
+    private static final String NEW_MODEL = "new-model";
+    private static final String UNEMBEDDABLE = "unembeddable by the new model";
+    private static final EmbeddedPostgres POSTGRES = startPostgres();
+
+    @Autowired
+    private EmbeddingReembedJob reembedJob;
+    @Autowired
+    private ChunkEmbeddingService chunkEmbeddingService;
+    @Autowired
+    private TenantRepository tenantRepo;
+    @Autowired
+    private DocumentVersionRepository versionRepo;
+    @Autowired
+    private KbChunkRepository chunkRepo;
+    @Autowired
+    private KbEmbeddingRepository embeddingRepo;
+    @Autowired
+    private EmbeddingCacheRepository cacheRepo;
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> POSTGRES.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "");
+    }
+
+    private static EmbeddedPostgres startPostgres() {
+        try {
+            return EmbeddedPostgres.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The tenants are moving from {@code old-model} (the previous model) to {@code new-model}.
+     */
+    @TestConfiguration
+    static class Models {
+        @Bean
+        EmbeddingsClient embeddingsClient() {
+            return new StubEmbeddings(NEW_MODEL);
+        }
+
+        @Bean
+        EmbeddingModelRegistry embeddingModelRegistry(EmbeddingsClient embeddingsClient) {
+            return new EmbeddingModelRegistry(embeddingsClient, new StubEmbeddings(OLD_MODEL));
+        }
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    /**
+     * Two-dimensional vectors derived from the text; the new model returns a zero vector (a failed
+     * embedding) for {@link #UNEMBEDDABLE}.
+     */
+    private record StubEmbeddings(String modelId) implements EmbeddingsClient {
+        @Override
+        public List<float[]> embed(List<String> texts) {
+            return texts.stream()
+                    .map(t -> NEW_MODEL.equals(modelId) && t.equals(UNEMBEDDABLE) ? new float[2] : new float[]{1f, t.length()})
+                    .toList();
+        }
+
+        @Override
+        public int dimensions() {
+            return 2;
+        }
+    }
+
+    @BeforeEach
+    void clearKnowledgeBase() {
+        embeddingRepo.deleteAll();
+        chunkRepo.deleteAll();
+        cacheRepo.deleteAll();
+        versionRepo.deleteAll();
+        tenantRepo.deleteAll();
+    }
+
+    @Test
+    void chunkUploadedMidMigrationIsEmbeddedWithBothModels() {
+        UUID tenant = tenant(OLD_MODEL);
+        KbChunk chunk = chunk(tenant, "uploaded during the migration", EmbeddingStatus.PENDING);
+
+        chunkEmbeddingService.embedPending(tenant, List.of(chunk));
+
+        // retrieval still searches the old model until the switch
+        assertEquals(Set.of(OLD_MODEL, NEW_MODEL), models(tenant, chunk));
+    }
+
+    @Test
+    void chunkOfMigratedTenantIsEmbeddedWithTheCurrentModelOnly() {
+        UUID tenant = tenant(NEW_MODEL);
+        KbChunk chunk = chunk(tenant, "uploaded after the migration", EmbeddingStatus.PENDING);
+
+        chunkEmbeddingService.embedPending(tenant, List.of(chunk));
+
+        assertEquals(Set.of(NEW_MODEL), models(tenant, chunk));
+    }
+
+    @Test
+    void switchKeepsTheOnlyVectorOfChunksTheNewModelCannotEmbed() {
+        UUID tenant = tenant(OLD_MODEL);
+        KbChunk migrated = chunk(tenant, "re-embedded fine", EmbeddingStatus.EMBEDDED);
+        KbChunk stuck = chunk(tenant, UNEMBEDDABLE, EmbeddingStatus.EMBEDDED);
+        vector(tenant, migrated, OLD_MODEL);
+        vector(tenant, stuck, OLD_MODEL);
+
+        // one pass, then the failing chunk's two retries, then the switch
+        for (int run = 0; run < 4; run++) {
+            reembedJob.reembed();
+        }
+
+        assertEquals(NEW_MODEL, tenantRepo.findById(tenant).orElseThrow().getActiveEmbeddingModel());
+        assertEquals(Set.of(NEW_MODEL), models(tenant, migrated));
+        assertEquals(Set.of(OLD_MODEL), models(tenant, stuck));
+        KbChunk stuckAfter = chunkRepo.findById(stuck.getId()).orElseThrow();
+        assertEquals(EmbeddingStatus.FAILED, stuckAfter.getEmbeddingStatus());
+        assertEquals(2, stuckAfter.getRepairAttempts());
+    }
+
+    private UUID tenant(String activeModel) {
+        Tenant tenant = new Tenant();
+        tenant.setName("Tenant");
+        tenant.setSlug("tenant-" + UUID.randomUUID());
+        tenant.setActiveEmbeddingModel(activeModel);
+        return tenantRepo.save(tenant).getId();
+    }
+
+    private KbChunk chunk(UUID tenant, String text, EmbeddingStatus status) {
+        DocumentVersion version = new DocumentVersion();
+        version.setTenantId(tenant);
+        version.setDocumentId(UUID.randomUUID());
+        version.setVersionNum(1);
+        version.setStatus(DocumentVersionStatus.READY);
+        version = versionRepo.save(version);
+
+        KbChunk chunk = new KbChunk();
+        chunk.setTenantId(tenant);
+        chunk.setDocumentVersionId(version.getId());
+        chunk.setChunkIndex(0);
+        chunk.setText(text);
+        chunk.setEmbeddingStatus(status);
+        return chunkRepo.save(chunk);
+    }
+
+    private void vector(UUID tenant, KbChunk chunk, String model) {
+        KbEmbedding embedding = new KbEmbedding();
+        embedding.setTenantId(tenant);
+        embedding.setChunkId(chunk.getId());
+        embedding.setEmbeddingModel(model);
+        embedding.setEmbedding(EmbeddingCodec.serialize(new float[]{1f, 1f}));
+        embeddingRepo.save(embedding);
+    }
+
+    private Set<String> models(UUID tenant, KbChunk chunk) {
+        return embeddingRepo.findByTenantIdAndChunkId(tenant, chunk.getId()).stream()
+                .map(KbEmbedding::getEmbeddingModel)
+                .collect(Collectors.toSet());
+    }
+}
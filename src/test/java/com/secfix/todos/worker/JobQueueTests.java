@@ -0,0 +1,504 @@
+package com.secfix.todos.worker;
+
+import com.secfix.todos.database.models.Document;
+import com.secfix.todos.database.models.DocumentProcessingJob;
+import com.secfix.todos.database.models.DocumentVersion;
+import com.secfix.todos.database.repositories.DocumentProcessingJobRepository;
+import com.secfix.todos.database.repositories.DocumentRepository;
+import com.secfix.todos.database.repositories.DocumentVersionRepository;
+import com.secfix.todos.enums.DocumentType;
+import com.secfix.todos.enums.DocumentVersionStatus;
+import com.secfix.todos.enums.ProcessingJobPriority;
+import com.secfix.todos.enums.ProcessingJobStage;
+import com.secfix.todos.enums.ProcessingJobStatus;
+import com.secfix.todos.exceptions.PermanentProcessingException;
+import com.secfix.todos.services.DocumentProcessingProfile;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpTimeoutException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The processing job queue against a real PostgreSQL, since claiming and the lease checks are
+ * native SQL and row locks that no in-memory database would run.
+ */
+@DataJpaTest(properties = {
+        "sectool.processing.indexed-types=POLICY,QUESTIONNAIRE,OTHER",
+        "sectool.worker.tenant.max-running=" + JobQueueTests.CAPPED_TENANT + ":1"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import({JobQueue.class, StagePlan.class, DocumentProcessingProfile.class, JobNotifications.class, TenantSchedulingPolicy.class,
+        IndexBackfillJob.class, ClusterLock.class})
+class JobQueueTests {
+
+    static final String CAPPED_TENANT = "00000000-0000-0000-0000-0000000000c1";
+    private static final int MAX_ATTEMPTS = 3;
+    private static final EmbeddedPostgres POSTGRES = startPostgres();
+
+    @Autowired
+    private JobQueue jobQueue;
+    @Autowired
+    private DocumentProcessingJobRepository jobRepo;
+    @Autowired
+    private DocumentVersionRepository versionRepo;
+    @Autowired
+    private DocumentRepository documentRepo;
+    @Autowired
+    private IndexBackfillJob indexBackfillJob;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> POSTGRES.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "");
+    }
+
+    private static EmbeddedPostgres startPostgres() {
+        try {
+            return EmbeddedPostgres.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @BeforeEach
+    void clearQueue() {
+        jobRepo.deleteAll();
+        versionRepo.deleteAll();
+        documentRepo.deleteAll();
+    }
+
+    @Test
+    void claimInterleavesTenants() {
+        UUID bulk = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        for (int i = 0; i < 6; i++) pending(bulk, version(bulk), ProcessingJobStage.PARSE, ProcessingJobPriority.NORMAL, 60 - i);
+        for (int i = 0; i < 2; i++) pending(other, version(other), ProcessingJobStage.PARSE, ProcessingJobPriority.NORMAL, 10 - i);
+
+        List<DocumentProcessingJob> claimed = jobQueue.claim(Map.of(ProcessingJobStage.PARSE, 4), "worker-1");
+
+        // the other tenant's newer jobs are not queued behind the whole bulk upload
+        assertEquals(4, claimed.size());
+        assertEquals(2, claimed.stream().filter(j -> j.getTenantId().equals(other)).count());
+        assertTrue(claimed.stream().allMatch(j -> j.getStatus() == ProcessingJobStatus.RUNNING
+                && "worker-1".equals(j.getLockedBy()) && j.getAttempt() == 1 && j.getLeaseExpiresAt() != null));
+    }
+
+    @Test
+    void claimRespectsTenantCap() {
+        UUID capped = UUID.fromString(CAPPED_TENANT);
+        for (int i = 0; i < 3; i++) pending(capped, version(capped), ProcessingJobStage.PARSE, ProcessingJobPriority.NORMAL, 30 - i);
+
+        assertEquals(1, jobQueue.claim(Map.of(ProcessingJobStage.PARSE, 4), "worker-1").size());
+        assertTrue(jobQueue.claim(Map.of(ProcessingJobStage.PARSE, 4), "worker-2").isEmpty());
+        // the cap is per stage
+        pending(capped, version(capped), ProcessingJobStage.CHUNK, ProcessingJobPriority.NORMAL, 0);
+        assertEquals(1, jobQueue.claim(Map.of(ProcessingJobStage.PARSE, 4, ProcessingJobStage.CHUNK, 4), "worker-2").size());
+    }
+
+    @Test
+    void claimFillsEveryStageInOneCall() {
+        UUID tenant = UUID.randomUUID();
+        for (int i = 0; i < 3; i++) pending(tenant, version(tenant), ProcessingJobStage.PARSE, ProcessingJobPriority.NORMAL, 0);
+        for (int i = 0; i < 3; i++) pending(tenant, version(tenant), ProcessingJobStage.CHUNK, ProcessingJobPriority.NORMAL, 0);
+
+        List<DocumentProcessingJob> claimed = jobQueue.claim(Map.of(ProcessingJobStage.PARSE, 2,
+                ProcessingJobStage.CHUNK, 1, ProcessingJobStage.EMBED, 4), "worker-1");
+
+        assertEquals(2, claimed.stream().filter(j -> j.getStage() == ProcessingJobStage.PARSE).count());
+        assertEquals(1, claimed.stream().filter(j -> j.getStage() == ProcessingJobStage.CHUNK).count());
+        assertEquals(3, claimed.size());
+    }
+
+    @Test
+    void concurrentClaimsNeverShareAJob() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            UUID tenant = UUID.randomUUID();
+            pending(tenant, version(tenant), ProcessingJobStage.PARSE, ProcessingJobPriority.NORMAL, 0);
+        }
+        CyclicBarrier barrier = new CyclicBarrier(4);
+        List<CompletableFuture<List<DocumentProcessingJob>>> claims = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            String worker = "worker-" + w;
+            claims.add(CompletableFuture.supplyAsync(() -> {
+                await(barrier);
+                return jobQueue.claim(Map.of(ProcessingJobStage.PARSE, 5), worker);
+            }));
+        }
+
+        List<UUID> claimed = new ArrayList<>();
+        for (CompletableFuture<List<DocumentProcessingJob>> claim : claims) {
+            claim.get().forEach(job -> claimed.add(job.getId()));
+        }
+        assertEquals(20, claimed.size());
+        assertEquals(20, claimed.stream().distinct().count());
+    }
+
+    @Test
+    void claimTakesHighFirstAndAgesLowUpToNormal() {
+        UUID tenant = UUID.randomUUID();
+        // three aging intervals, still short of the maximum wait
+        DocumentProcessingJob oldLow = pending(tenant, version(tenant), ProcessingJobStage.PARSE, ProcessingJobPriority.LOW, 1800);
+        DocumentProcessingJob freshNormal = pending(tenant, version(tenant), ProcessingJobStage.PARSE, ProcessingJobPriority.NORMAL, 0);
+        DocumentProcessingJob freshHigh = pending(tenant, version(tenant), ProcessingJobStage.PARSE, ProcessingJobPriority.HIGH, 0);
+
+        List<UUID> order = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            order.add(claimOne(ProcessingJobStage.PARSE).getId());
+        }
+
+        assertEquals(List.of(freshHigh.getId(), oldLow.getId(), freshNormal.getId()), order);
+    }
+
+    @Test
+    void lowJobIsNotStarvedByAStreamOfHighJobs() {
+        UUID backfilled = UUID.randomUUID();
+        UUID uploader = UUID.randomUUID();
+        DocumentProcessingJob starving = pending(backfilled, version(backfilled), ProcessingJobStage.PARSE,
+                ProcessingJobPriority.LOW, 7200);
+        pending(uploader, version(uploader), ProcessingJobStage.PARSE, ProcessingJobPriority.HIGH, 600);
+
+        // uploads keep arriving while earlier ones run; the LOW job past the maximum wait competes with them
+        List<UUID> claimed = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            pending(uploader, version(uploader), ProcessingJobStage.PARSE, ProcessingJobPriority.HIGH, 0);
+            claimed.add(claimOne(ProcessingJobStage.PARSE).getId());
+        }
+
+        assertEquals(starving.getId(), claimed.getFirst());
+    }
+
+    @Test
+    void completeAfterLosingTheLeaseIsDiscarded() {
+        UUID tenant = UUID.randomUUID();
+        UUID version = version(tenant);
+        pending(tenant, version, ProcessingJobStage.PARSE, ProcessingJobPriority.NORMAL, 0);
+        DocumentProcessingJob parse = claimOne(ProcessingJobStage.PARSE);
+        parse.setLockedBy("worker-that-lost-it");
+
+        jobQueue.complete(parse, DocumentType.POLICY, Set.of());
+
+        Map<ProcessingJobStage, DocumentProcessingJob> jobs = jobsByStage(tenant, version);
+        assertEquals(ProcessingJobStatus.RUNNING, jobs.get(ProcessingJobStage.PARSE).getStatus());
+        assertFalse(jobs.containsKey(ProcessingJobStage.CHUNK));
+    }
+
+    @Test
+    void heartbeatOnlyExtendsLeasesTheWorkerHolds() {
+        UUID tenant = UUID.randomUUID();
+        pending(tenant, version(tenant), ProcessingJobStage.PARSE, ProcessingJobPriority.NORMAL, 0);
+        DocumentProcessingJob parse = claimOne(ProcessingJobStage.PARSE);
+
+        assertEquals(Set.of(parse.getId()), jobQueue.heartbeat(List.of(parse.getId()), "worker-1"));
+        assertTrue(jobQueue.heartbeat(List.of(parse.getId()), "worker-2").isEmpty());
+    }
+
+    @Test
+    void reaperRequeuesExpiredLeasesAndFailsExhaustedOnes() {
+        UUID tenant = UUID.randomUUID();
+        UUID retryable = version(tenant);
+        UUID exhausted = version(tenant);
+        pending(tenant, retryable, ProcessingJobStage.PARSE, ProcessingJobPriority.NORMAL, 10);
+        DocumentProcessingJob last = pending(tenant, exhausted, ProcessingJobStage.PARSE, ProcessingJobPriority.NORMAL, 0);
+        jdbcTemplate.update("UPDATE document_processing_job SET attempt = ? WHERE id = ?", MAX_ATTEMPTS - 1, last.getId());
+        assertEquals(2, jobQueue.claim(Map.of(ProcessingJobStage.PARSE, 2), "worker-1").size());
+        jdbcTemplate.update("UPDATE document_processing_job SET lease_expires_at = now() - interval '1 second'");
+
+        JobQueue.ReapedJobs reaped = jobQueue.reapExpiredLeases(MAX_ATTEMPTS);
+
+        assertEquals(List.of(retryable), reaped.requeued().stream().map(DocumentProcessingJob::getDocumentVersionId).toList());
+        assertEquals(List.of(exhausted), reaped.failed().stream().map(DocumentProcessingJob::getDocumentVersionId).toList());
+        assertEquals(ProcessingJobStatus.PENDING, jobsByStage(tenant, retryable).get(ProcessingJobStage.PARSE).getStatus());
+        assertEquals(DocumentVersionStatus.PROCESSING, versionStatus(retryable));
+        assertEquals(DocumentVersionStatus.FAILED, versionStatus(exhausted));
+    }
+
+    @Test
+    void fusedJobChargesTheFailedStageWithItsFirstAttempt() {
+        UUID tenant = UUID.randomUUID();
+        UUID version = version(tenant);
+        pending(tenant, version, ProcessingJobStage.PARSE, ProcessingJobPriority.NORMAL, 0);
+        DocumentProcessingJob parse = claimOne(ProcessingJobStage.PARSE);
+
+        jobQueue.completeUntilFailure(parse, DocumentType.POLICY, Set.of(ProcessingJobStage.CHUNK),
+                ProcessingJobStage.EMBED, new HttpTimeoutException("embeddings timed out"), MAX_ATTEMPTS);
+
+        Map<ProcessingJobStage, DocumentProcessingJob> jobs = jobsByStage(tenant, version);
+        assertEquals(ProcessingJobStatus.DONE, jobs.get(ProcessingJobStage.PARSE).getStatus());
+        assertEquals(ProcessingJobStatus.DONE, jobs.get(ProcessingJobStage.CHUNK).getStatus());
+        DocumentProcessingJob embed = jobs.get(ProcessingJobStage.EMBED);
+        assertEquals(ProcessingJobStatus.PENDING, embed.getStatus());
+        assertEquals(1, embed.getAttempt());
+        assertEquals(JobFailures.TRANSIENT, embed.getErrorCode());
+        assertTrue(embed.getNextRunAt().isAfter(Instant.now()));
+        assertEquals(DocumentVersionStatus.PROCESSING, versionStatus(version));
+    }
+
+    @Test
+    void fusedJobFailsTheVersionOnAPermanentStageFailure() {
+        UUID tenant = UUID.randomUUID();
+        UUID version = version(tenant);
+        pending(tenant, version, ProcessingJobStage.PARSE, ProcessingJobPriority.NORMAL, 0);
+        DocumentProcessingJob parse = claimOne(ProcessingJobStage.PARSE);
+
+        jobQueue.completeUntilFailure(parse, DocumentType.POLICY, Set.of(),
+                ProcessingJobStage.CHUNK, new IllegalArgumentException("no text"), MAX_ATTEMPTS);
+
+        assertEquals(ProcessingJobStatus.FAILED, jobsByStage(tenant, version).get(ProcessingJobStage.CHUNK).getStatus());
+        assertEquals(DocumentVersionStatus.FAILED, versionStatus(version));
+    }
+
+    @Test
+    void completeEnqueuesSuccessors() {
+        UUID tenant = UUID.randomUUID();
+        UUID version = version(tenant);
+        pending(tenant, version, ProcessingJobStage.PARSE, ProcessingJobPriority.HIGH, 0);
+        DocumentProcessingJob parse = claimOne(ProcessingJobStage.PARSE);
+
+        jobQueue.complete(parse, DocumentType.POLICY, Set.of());
+
+        Map<ProcessingJobStage, DocumentProcessingJob> jobs = jobsByStage(tenant, version);
+        assertEquals(ProcessingJobStatus.DONE, jobs.get(ProcessingJobStage.PARSE).getStatus());
+        assertEquals(ProcessingJobStatus.PENDING, jobs.get(ProcessingJobStage.CHUNK).getStatus());
+        assertEquals(ProcessingJobPriority.HIGH, jobs.get(ProcessingJobStage.CHUNK).getPriority());
+        assertEquals(Set.of(ProcessingJobStage.PARSE, ProcessingJobStage.CHUNK), jobs.keySet());
+    }
+
+    @Test
+    void finalizeIsEnqueuedOnceWhenPredecessorsFinishConcurrently() throws Exception {
+        UUID tenant = UUID.randomUUID();
+        List<UUID> versions = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            UUID version = version(tenant);
+            versions.add(version);
+            done(tenant, version, ProcessingJobStage.PARSE);
+            done(tenant, version, ProcessingJobStage.CHUNK);
+            pending(tenant, version, ProcessingJobStage.EXTRACT_QUESTIONS, ProcessingJobPriority.NORMAL, 0);
+            pending(tenant, version, ProcessingJobStage.EMBED, ProcessingJobPriority.NORMAL, 0);
+        }
+        List<DocumentProcessingJob> claimed = jobQueue.claim(
+                Map.of(ProcessingJobStage.EXTRACT_QUESTIONS, 10, ProcessingJobStage.EMBED, 10), "worker-1");
+        assertEquals(20, claimed.size());
+
+        for (UUID version : versions) {
+            List<DocumentProcessingJob> predecessors = claimed.stream()
+                    .filter(j -> j.getDocumentVersionId().equals(version)).toList();
+            CyclicBarrier barrier = new CyclicBarrier(predecessors.size());
+            CompletableFuture.allOf(predecessors.stream()
+                    .map(job -> CompletableFuture.runAsync(() -> {
+                        await(barrier);
+                        jobQueue.complete(job, DocumentType.QUESTIONNAIRE, Set.of());
+                    }))
+                    .toArray(CompletableFuture[]::new)).get();
+
+            long finalizeJobs = jobRepo.findByTenantIdAndDocumentVersionId(tenant, version).stream()
+                    .filter(j -> j.getStage() == ProcessingJobStage.FINALIZE).count();
+            assertEquals(1, finalizeJobs, "FINALIZE jobs of version " + version);
+        }
+    }
+
+    @Test
+    void failedBackfillKeepsReadyVersionReady() {
+        UUID tenant = UUID.randomUUID();
+        UUID version = version(tenant);
+        DocumentVersion ready = versionRepo.findById(version).orElseThrow();
+        ready.setStatus(DocumentVersionStatus.READY);
+        versionRepo.save(ready);
+        pending(tenant, version, ProcessingJobStage.CHUNK, ProcessingJobPriority.LOW, 0);
+        DocumentProcessingJob chunk = claimOne(ProcessingJobStage.CHUNK);
+
+        jobQueue.fail(chunk, new PermanentProcessingException("artifact missing"), MAX_ATTEMPTS);
+
+        assertEquals(ProcessingJobStatus.FAILED, jobRepo.findById(chunk.getId()).orElseThrow().getStatus());
+        assertEquals(DocumentVersionStatus.READY, versionStatus(version));
+    }
+
+    @Test
+    void backfillEnqueuesEachVersionOnceWhenNodesSweepConcurrently() throws Exception {
+        UUID tenant = UUID.randomUUID();
+        for (int i = 0; i < 50; i++) {
+            Document document = new Document();
+            document.setTenantId(tenant);
+            document.setType(DocumentType.POLICY);
+            document = documentRepo.save(document);
+            DocumentVersion version = versionRepo.findById(version(tenant)).orElseThrow();
+            version.setDocumentId(document.getId());
+            version.setStatus(DocumentVersionStatus.READY);
+            versionRepo.save(version);
+        }
+
+        CyclicBarrier barrier = new CyclicBarrier(4);
+        CompletableFuture.allOf(IntStream.range(0, 4)
+                .mapToObj(node -> CompletableFuture.runAsync(() -> {
+                    await(barrier);
+                    indexBackfillJob.backfill();
+                }))
+                .toArray(CompletableFuture[]::new)).get();
+        indexBackfillJob.backfill();
+
+        List<DocumentProcessingJob> jobs = jobRepo.findAll();
+        assertEquals(50, jobs.size());
+        assertEquals(50, jobs.stream().map(DocumentProcessingJob::getDocumentVersionId).distinct().count());
+        assertTrue(jobs.stream().allMatch(j -> j.getStage() == ProcessingJobStage.CHUNK
+                && j.getPriority() == ProcessingJobPriority.LOW));
+    }
+
+    @Test
+    void claimSkipsJobsWaitingOutTheirBackoff() {
+        UUID tenant = UUID.randomUUID();
+        DocumentProcessingJob job = pending(tenant, version(tenant), ProcessingJobStage.PARSE, ProcessingJobPriority.NORMAL, 0);
+        jdbcTemplate.update("UPDATE document_processing_job SET next_run_at = now() + interval '1 minute' WHERE id = ?", job.getId());
+
+        assertTrue(jobQueue.claim(Map.of(ProcessingJobStage.PARSE, 1), "worker-1").isEmpty());
+
+        jdbcTemplate.update("UPDATE document_processing_job SET next_run_at = now() - interval '1 second' WHERE id = ?", job.getId());
+        assertEquals(1, jobQueue.claim(Map.of(ProcessingJobStage.PARSE, 1), "worker-1").size());
+    }
+
+    @Test
+    void transientFailureIsRetriedWithBackoff() {
+        UUID tenant = UUID.randomUUID();
+        UUID version = version(tenant);
+        pending(tenant, version, ProcessingJobStage.PARSE, ProcessingJobPriority.NORMAL, 0);
+        DocumentProcessingJob parse = claimOne(ProcessingJobStage.PARSE);
+
+        jobQueue.fail(parse, new HttpTimeoutException("kreuzberg timed out"), MAX_ATTEMPTS);
+
+        DocumentProcessingJob retried = jobRepo.findById(parse.getId()).orElseThrow();
+        assertEquals(ProcessingJobStatus.PENDING, retried.getStatus());
+        assertEquals(JobFailures.TRANSIENT, retried.getErrorCode());
+        assertNotNull(retried.getNextRunAt());
+        assertTrue(retried.getNextRunAt().isAfter(Instant.now()));
+        assertEquals(DocumentVersionStatus.PROCESSING, versionStatus(version));
+        assertTrue(jobQueue.claim(Map.of(ProcessingJobStage.PARSE, 1), "worker-1").isEmpty());
+    }
+
+    @Test
+    void permanentFailureFailsTheVersion() {
+        UUID tenant = UUID.randomUUID();
+        UUID version = version(tenant);
+        pending(tenant, version, ProcessingJobStage.PARSE, ProcessingJobPriority.NORMAL, 0);
+        DocumentProcessingJob parse = claimOne(ProcessingJobStage.PARSE);
+
+        jobQueue.fail(parse, new PermanentProcessingException("unsupported file"), MAX_ATTEMPTS);
+
+        DocumentProcessingJob failed = jobRepo.findById(parse.getId()).orElseThrow();
+        assertEquals(ProcessingJobStatus.FAILED, failed.getStatus());
+        assertEquals(JobFailures.PERMANENT, failed.getErrorCode());
+        assertEquals(DocumentVersionStatus.FAILED, versionStatus(version));
+    }
+
+    @Test
+    void transientFailureOnTheLastAttemptFailsTheVersion() {
+        UUID tenant = UUID.randomUUID();
+        UUID version = version(tenant);
+        DocumentProcessingJob job = pending(tenant, version, ProcessingJobStage.PARSE, ProcessingJobPriority.NORMAL, 0);
+        jdbcTemplate.update("UPDATE document_processing_job SET attempt = ? WHERE id = ?", MAX_ATTEMPTS - 1, job.getId());
+        DocumentProcessingJob parse = claimOne(ProcessingJobStage.PARSE);
+
+        jobQueue.fail(parse, new HttpTimeoutException("kreuzberg timed out"), MAX_ATTEMPTS);
+
+        assertEquals(ProcessingJobStatus.FAILED, jobRepo.findById(parse.getId()).orElseThrow().getStatus());
+        assertEquals(DocumentVersionStatus.FAILED, versionStatus(version));
+    }
+
+    @Test
+    void failuresAreClassifiedAlongTheCauseChain() {
+        assertTrue(JobFailures.isPermanent(new PermanentProcessingException("unsupported file")));
+        assertTrue(JobFailures.isPermanent(new RuntimeException("wrapped", new NoSuchElementException("no version"))));
+        assertTrue(JobFailures.isPermanent(new IllegalArgumentException("bad input")));
+        assertFalse(JobFailures.isPermanent(new HttpTimeoutException("timed out")));
+        assertFalse(JobFailures.isPermanent(new IllegalStateException("HTTP 503")));
+        assertEquals(JobFailures.TRANSIENT, JobFailures.errorCode(new IOException("connection reset")));
+    }
+
+    private UUID version(UUID tenant) {
+        DocumentVersion version = new DocumentVersion();
+        version.setTenantId(tenant);
+        version.setDocumentId(UUID.randomUUID());
+        version.setVersionNum(1);
+        version.setStatus(DocumentVersionStatus.PROCESSING);
+        return versionRepo.save(version).getId();
+    }
+
+    private DocumentProcessingJob pending(UUID tenant, UUID version, ProcessingJobStage stage,
+                                          ProcessingJobPriority priority, int ageSeconds) {
+        DocumentProcessingJob job = new DocumentProcessingJob();
+        job.setTenantId(tenant);
+        job.setDocumentVersionId(version);
+        job.setStage(stage);
+        job.setStatus(ProcessingJobStatus.PENDING);
+        job.setPriority(priority);
+        job = jobRepo.save(job);
+        jdbcTemplate.update("UPDATE document_processing_job SET created_at = now() - ? * interval '1 second' WHERE id = ?",
+                ageSeconds, job.getId());
+        return job;
+    }
+
+    private void done(UUID tenant, UUID version, ProcessingJobStage stage) {
+        DocumentProcessingJob job = new DocumentProcessingJob();
+        job.setTenantId(tenant);
+        job.setDocumentVersionId(version);
+        job.setStage(stage);
+        job.setStatus(ProcessingJobStatus.DONE);
+        job.setAttempt(1);
+        jobRepo.save(job);
+    }
+
+    private DocumentProcessingJob claimOne(ProcessingJobStage stage) {
+        List<DocumentProcessingJob> claimed = jobQueue.claim(Map.of(stage, 1), "worker-1");
+        assertEquals(1, claimed.size());
+        return claimed.getFirst();
+    }
+
+    private Map<ProcessingJobStage, DocumentProcessingJob> jobsByStage(UUID tenant, UUID version) {
+        Map<ProcessingJobStage, DocumentProcessingJob> jobs = new EnumMap<>(ProcessingJobStage.class);
+        for (DocumentProcessingJob job : jobRepo.findByTenantIdAndDocumentVersionId(tenant, version)) {
+            jobs.put(job.getStage(), job);
+        }
+        return jobs;
+    }
+
+    private DocumentVersionStatus versionStatus(UUID version) {
+        return versionRepo.findById(version).orElseThrow().getStatus();
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}